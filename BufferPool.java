@@ -0,0 +1,23 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Tampons de lecture des connexions clientes, réutilisés d'une connexion à l'autre
+public final class BufferPool {
+    private static final int BUFFER_SIZE = (int) ConfigManager.getSize("client.buffer.size", 16 * 1024);
+    private static final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(ConfigManager.getInt("client.buffer.pool", 256));
+
+    private BufferPool() {
+    }
+
+    public static byte[] acquire() {
+        byte[] buffer = free.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    // Le tampon ne doit plus être utilisé par l'appelant ; au-delà de la taille du pool, il est abandonné
+    public static void release(byte[] buffer) {
+        if (buffer.length == BUFFER_SIZE) {
+            free.offer(buffer);
+        }
+    }
+}
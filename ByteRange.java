@@ -0,0 +1,87 @@
+/**
+ * Intervalle d'octets unique demandé par un en-tête Range (bytes=a-b, bytes=a- ou bytes=-n). Les
+ * demandes à plusieurs intervalles ne sont pas prises en charge : la réponse complète est alors
+ * envoyée, ce que permet RFC 9110 (14.2).
+ */
+public final class ByteRange {
+    private final long first;
+    // -1 : jusqu'à la fin
+    private final long last;
+    // Nombre d'octets de fin demandés (bytes=-n), -1 sinon
+    private final long suffix;
+
+    private ByteRange(long first, long last, long suffix) {
+        this.first = first;
+        this.last = last;
+        this.suffix = suffix;
+    }
+
+    // Intervalle demandé, ou null si l'en-tête est absent, invalide ou à plusieurs intervalles
+    public static ByteRange parse(String header) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        if (header.length() < 6 || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        long first = number(spec.substring(0, dash).trim());
+        long last = number(spec.substring(dash + 1).trim());
+        if (first == -2 || last == -2) {
+            return null;
+        }
+        if (first == -1) {
+            return last > 0 ? new ByteRange(-1, -1, last) : null;
+        }
+        if (last != -1 && last < first) {
+            return null;
+        }
+        return new ByteRange(first, last, -1);
+    }
+
+    // -1 pour une valeur vide, -2 pour une valeur invalide
+    private static long number(String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return -2;
+            }
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -2;
+        }
+    }
+
+    // Faux si aucun octet demandé n'existe dans une représentation de cette taille (416)
+    public boolean isSatisfiable(long length) {
+        return suffix > 0 ? length > 0 : first < length;
+    }
+
+    // Premier octet de l'intervalle pour une représentation de cette taille
+    public long start(long length) {
+        return suffix > 0 ? Math.max(0, length - suffix) : first;
+    }
+
+    // Dernier octet, inclus
+    public long end(long length) {
+        return suffix > 0 || last == -1 || last >= length ? length - 1 : last;
+    }
+
+    // Valeur à retransmettre à l'origine
+    @Override
+    public String toString() {
+        if (suffix > 0) {
+            return "bytes=-" + suffix;
+        }
+        return "bytes=" + first + "-" + (last == -1 ? "" : String.valueOf(last));
+    }
+}
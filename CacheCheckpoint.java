@@ -0,0 +1,120 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Instantané des métadonnées du cache (taille, expiration, fréquence d'accès et segment de chaque
+ * entrée), rangé des entrées les plus demandées aux moins demandées. Relu au démarrage, il évite de
+ * parcourir les fichiers du cache et indique quelles entrées précharger en mémoire.
+ */
+public class CacheCheckpoint {
+    // Version 2 : chaînes préfixées par leur longueur en octets UTF-8, comme dans CacheIndex
+    private static final int MAGIC = 0x50584b32; // "PXK2"
+
+    public static class Record {
+        final String url;
+        final String cacheFileName;
+        final long size;
+        final long expires;
+        final int frequency;
+        final boolean hot;
+
+        public Record(String url, String cacheFileName, long size, long expires, int frequency, boolean hot) {
+            this.url = url;
+            this.cacheFileName = cacheFileName;
+            this.size = size;
+            this.expires = expires;
+            this.frequency = frequency;
+            this.hot = hot;
+        }
+    }
+
+    // Écrit les enregistrements dans un fichier temporaire synchronisé, puis le substitue à l'ancien
+    public static void write(File file, List<Record> records) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOutput = new FileOutputStream(tempFile)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOutput), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(records.size());
+            for (Record record : records) {
+                writeField(out, record.url);
+                writeField(out, record.cacheFileName);
+                out.writeLong(record.size);
+                out.writeLong(record.expires);
+                out.writeByte(record.frequency);
+                out.writeBoolean(record.hot);
+            }
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            out.writeLong(crc);
+            out.flush();
+            fileOutput.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Enregistrements par URL, dans l'ordre du fichier ; vide si le fichier est absent ou endommagé
+    public static Map<String, Record> read(File file) {
+        Map<String, Record> records = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) {
+                return records;
+            }
+            in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Record record = new Record(readField(in), readField(in), in.readLong(), in.readLong(),
+                        in.readByte(), in.readBoolean());
+                records.put(record.url, record);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                Log.error("Point de reprise du cache corrompu, ignoré : " + file);
+                records.clear();
+            }
+        } catch (IOException e) {
+            Log.error("Point de reprise du cache illisible, ignoré : " + e.getMessage());
+            records.clear();
+        }
+        return records;
+    }
+
+    // Sans writeUTF, limité à 64 Ko : les URL acceptées par l'index vont jusqu'à 1 Mo
+    private static void writeField(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readField(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 1 << 20) {
+            throw new EOFException("Longueur de champ invalide : " + length);
+        }
+        byte[] field = new byte[length];
+        in.readFully(field);
+        return new String(field, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Index URL -> nom de fichier cache et date d'expiration, gardé en mémoire et persisté dans un
+ * journal binaire en ajout seul. Chaque enregistrement porte un CRC : au démarrage, le journal est rejoué
+ * jusqu'au dernier enregistrement intact puis tronqué, ce qui efface une écriture interrompue.
+ * Quand les enregistrements obsolètes dominent, le journal est réécrit en arrière-plan.
+ * Les enregistrements s'accumulent en mémoire jusqu'à flush(), qui les écrit et les synchronise
+ * sur disque en une fois (commit groupé).
+ */
+public class CacheIndex {
+    private static final int MAGIC = 0x50584932; // "PXI2"
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int COMPACT_MIN_RECORDS = ConfigManager.getInt("cache.index.compact.min", 1000);
+
+    private final File logFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cache-index-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileChannel channel;
+    // Enregistrements pas encore écrits dans le journal
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long logRecords;
+    private boolean compactionScheduled;
+
+    private static class Entry {
+        final String cacheFileName;
+        final long expires;
+
+        Entry(String cacheFileName, long expires) {
+            this.cacheFileName = cacheFileName;
+            this.expires = expires;
+        }
+
+        boolean sameAs(Entry other) {
+            return other != null && cacheFileName.equals(other.cacheFileName) && expires == other.expires;
+        }
+    }
+
+    public CacheIndex(File logFile, File legacyMappingFile) throws IOException {
+        this.logFile = logFile;
+        if (isLog(logFile)) {
+            recover();
+        } else {
+            // Premier démarrage, ou fichier encore au format texte : on le convertit
+            importLegacy(logFile.exists() ? logFile : legacyMappingFile);
+            rewrite();
+        }
+        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public String get(String url) {
+        Entry entry = entries.get(url);
+        return entry == null ? null : entry.cacheFileName;
+    }
+
+    // Date d'expiration (ms) de l'entrée ; 0 si inconnue (index importé), -1 si absente
+    public long getExpires(String url) {
+        Entry entry = entries.get(url);
+        return entry == null ? -1 : entry.expires;
+    }
+
+    public Set<String> urls() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void put(String url, String cacheFileName, long expires) {
+        Entry entry = new Entry(cacheFileName, expires);
+        if (entry.sameAs(entries.put(url, entry))) {
+            // Déjà présent : inutile d'allonger le journal
+            return;
+        }
+        append(OP_PUT, url, entry);
+    }
+
+    public void remove(String url) {
+        if (entries.remove(url) != null) {
+            append(OP_REMOVE, url, new Entry("", 0));
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        pending.reset();
+        try {
+            channel.close();
+            rewrite();
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.error("Erreur lors de la remise à zéro de l'index du cache : " + e.getMessage());
+        }
+    }
+
+    // Écrit les enregistrements en attente puis synchronise le journal : un seul fsync pour tout le lot
+    public synchronized void flush() {
+        if (pending.size() == 0) {
+            return;
+        }
+        try {
+            writeFully(channel, pending.toByteArray());
+            channel.force(false);
+        } catch (IOException e) {
+            Log.error("Erreur lors de l'écriture dans l'index du cache : " + e.getMessage());
+        }
+        pending.reset();
+    }
+
+    public synchronized void close() {
+        compactor.shutdown();
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Erreur lors de la fermeture de l'index du cache : " + e.getMessage());
+        }
+    }
+
+    private synchronized void append(byte op, String url, Entry entry) {
+        try {
+            pending.write(encode(op, url, entry));
+            logRecords++;
+        } catch (IOException e) {
+            Log.error("Erreur lors de l'écriture dans l'index du cache : " + e.getMessage());
+            return;
+        }
+
+        if (!compactionScheduled && logRecords > COMPACT_MIN_RECORDS && logRecords > 2L * entries.size()) {
+            compactionScheduled = true;
+            compactor.execute(this::compact);
+        }
+    }
+
+    private synchronized void compact() {
+        compactionScheduled = false;
+        // La réécriture part de l'état en mémoire, qui inclut déjà les enregistrements en attente
+        pending.reset();
+        try {
+            channel.close();
+            rewrite();
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.error("Erreur lors du compactage de l'index du cache : " + e.getMessage());
+        }
+    }
+
+    // Écrit l'état courant dans un fichier temporaire synchronisé puis le substitue au journal
+    private void rewrite() throws IOException {
+        File tempFile = new File(logFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+            new DataOutputStream(buffer).writeInt(MAGIC);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                buffer.write(encode(OP_PUT, entry.getKey(), entry.getValue()));
+                if (buffer.size() >= 64 * 1024) {
+                    writeFully(out, buffer.toByteArray());
+                    buffer.reset();
+                }
+            }
+            writeFully(out, buffer.toByteArray());
+            out.force(true);
+        }
+        Files.move(tempFile.toPath(), logFile.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        logRecords = entries.size();
+    }
+
+    // Rejoue le journal ; tout ce qui suit le dernier enregistrement valide est tronqué
+    private void recover() throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            in.readInt();
+            validLength = 4;
+            while (true) {
+                byte op = in.readByte();
+                byte[] url = readField(in);
+                byte[] cacheFileName = readField(in);
+                long expires = in.readLong();
+                int crc = in.readInt();
+                if (crc != checksum(op, url, cacheFileName, expires)) {
+                    Log.error("Enregistrement corrompu dans l'index du cache, reprise à l'offset " + validLength);
+                    break;
+                }
+                String key = new String(url, StandardCharsets.UTF_8);
+                if (op == OP_PUT) {
+                    entries.put(key, new Entry(new String(cacheFileName, StandardCharsets.UTF_8), expires));
+                } else if (op == OP_REMOVE) {
+                    entries.remove(key);
+                } else {
+                    break;
+                }
+                logRecords++;
+                validLength += 1 + 4 + url.length + 4 + cacheFileName.length + 8 + 4;
+            }
+        } catch (EOFException e) {
+            // Fin du journal, éventuellement au milieu d'un enregistrement interrompu
+        }
+
+        if (validLength < logFile.length()) {
+            try (FileChannel truncate = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                truncate.truncate(validLength);
+                truncate.force(true);
+            }
+        }
+    }
+
+    private static boolean isLog(File file) {
+        if (file.length() < 4) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readField(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 1 << 20) {
+            throw new EOFException("Longueur de champ invalide : " + length);
+        }
+        byte[] field = new byte[length];
+        in.readFully(field);
+        return field;
+    }
+
+    // Ancien format texte "url=fichier" : le nom de fichier est après le dernier '='
+    private void importLegacy(File legacyMappingFile) throws IOException {
+        if (legacyMappingFile == null || !legacyMappingFile.exists()) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(legacyMappingFile.toPath(), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            int separator = line.lastIndexOf('=');
+            if (separator > 0 && separator < line.length() - 1) {
+                entries.put(line.substring(0, separator), new Entry(line.substring(separator + 1), 0));
+            }
+        }
+        if (!entries.isEmpty()) {
+            Log.info("Index du cache importé depuis " + legacyMappingFile + " : " + entries.size() + " entrée(s)");
+        }
+    }
+
+    private static byte[] encode(byte op, String url, Entry entry) throws IOException {
+        byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = entry.cacheFileName.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(urlBytes.length + nameBytes.length + 21);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(op);
+        out.writeInt(urlBytes.length);
+        out.write(urlBytes);
+        out.writeInt(nameBytes.length);
+        out.write(nameBytes);
+        out.writeLong(entry.expires);
+        out.writeInt(checksum(op, urlBytes, nameBytes, entry.expires));
+        return buffer.toByteArray();
+    }
+
+    private static int checksum(byte op, byte[] url, byte[] cacheFileName, long expires) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(url);
+        crc.update(cacheFileName);
+        crc.update(ByteBuffer.allocate(8).putLong(0, expires).array());
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel out, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -1,126 +1,1023 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.lang.management.ManagementFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class CacheManager {
     private static final String CACHE_DIRECTORY = ConfigManager.get("cache.directory", "cache");
+    private static final String INDEX_FILE = ConfigManager.get("cache.index", "file/cacheIndex.log");
     private static final String MAPPING_FILE = ConfigManager.get("cache.mapping", "file/cacheMapping.txt");
-    private static final long CACHE_TTL = ConfigManager.getInt("cache.expiration.duration", 60000);
-    private static final int MAX_MEMORY_CACHE_SIZE = ConfigManager.getInt("cache.max.memory", 100); 
+    private static final String CHECKPOINT_FILE = ConfigManager.get("cache.checkpoint", "file/cacheCheckpoint.bin");
+    private static final long DEFAULT_TTL = ConfigManager.getDefaultExpiration();
+    // Durée pendant laquelle une entrée expirée est gardée pour être revalidée plutôt que retéléchargée
+    private static final long STALE_RETENTION = ConfigManager.getLong("cache.stale.retention", 3600000);
+    // Délai de grâce par défaut pendant lequel une entrée expirée est servie le temps de l'actualiser
+    private static final long STALE_GRACE = ConfigManager.getLong("cache.stale.while.revalidate", 0);
+    private static final long MEMORY_BUDGET = ConfigManager.getSize("cache.memory.bytes", 64 * 1024 * 1024);
+    private static final int MEMORY_PAGE_SIZE = (int) ConfigManager.getSize("cache.memory.page", 4096);
     private static final long MAX_MEMORY_ITEM_SIZE = ConfigManager.getLong("cache.max.memory.item", 1 * 1024 * 1024);
+    private static final long DISK_CAPACITY = ConfigManager.getSize("cache.disk.bytes", 1024L * 1024 * 1024);
+    // Volume de la mémoire cache rempli au démarrage avec les entrées les plus demandées avant l'arrêt
+    private static final long PRELOAD_BYTES = ConfigManager.getSize("cache.preload.bytes", MEMORY_BUDGET / 2);
+    private static final int LOCK_STRIPES = 64;
 
-    // Cache en mémoire avec éviction LRU
-    private static final Map<String, byte[]> memoryCache = new LinkedHashMap<>(16, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
-            return size() > MAX_MEMORY_CACHE_SIZE;
-        }
-    };
+    // Cache en mémoire hors tas, budgété en octets, lectures sans verrou, éviction LRU ou LFU
+    private static final MemoryCache memoryCache = new MemoryCache(
+            new SlabAllocator(MEMORY_BUDGET, MEMORY_PAGE_SIZE, 1024 * 1024),
+            ConfigManager.get("cache.memory.policy", "lru"));
+
+    // Verrous du cache disque, répartis par nom de fichier : deux URL différentes ne se bloquent pas
+    private static final ReentrantReadWriteLock[] diskLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+
+    // Index URL -> fichier, chargé une fois au démarrage
+    private static final CacheIndex index;
+
+    // Renommages, fsync et enregistrements d'index, faits hors du thread de la requête
+    private static final WriteBehindQueue writeBehind;
+
+    // Capacité du cache disque : admission selon la fréquence d'accès, éviction segmentée par taille
+    private static final DiskCachePolicy diskPolicy = new DiskCachePolicy(DISK_CAPACITY,
+            Math.max(1024, DISK_CAPACITY / (16 * 1024)),
+            !ConfigManager.get("cache.disk.admission", "tinylfu").equalsIgnoreCase("all"));
+
+    // Réponses publiées mais dont le fichier n'est pas encore en place, servies depuis leur fichier temporaire
+    private static final Map<String, CacheWriter> pendingWrites = new ConcurrentHashMap<>();
+    private static final boolean FSYNC = Boolean.parseBoolean(ConfigManager.get("cache.writebehind.fsync", "true"));
+
+    // Compteurs du taux de succès, par niveau de cache
+    private static final AtomicLong requestCount = new AtomicLong();
+    private static final AtomicLong memoryHitCount = new AtomicLong();
+    private static final AtomicLong diskHitCount = new AtomicLong();
+    private static final AtomicLong staleHitCount = new AtomicLong();
+    // Délai entre le lancement de la JVM et le premier succès de cache, -1 tant qu'il n'a pas eu lieu
+    private static final AtomicLong firstHitMillis = new AtomicLong(-1);
+
+    // Entrées à précharger, des plus demandées aux moins demandées
+    private static final List<String> hotSet = new ArrayList<>();
+
+    // Échéances de suppression des entrées, examinées par ConfigManager.configureCacheCleaner()
+    private static final ExpiryWheel expiryWheel =
+            new ExpiryWheel(ConfigManager.getLong("cache.expiration.tick", 1000), 512);
 
     static {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            diskLocks[i] = new ReentrantReadWriteLock();
+        }
         File cacheDir = new File(CACHE_DIRECTORY);
         if (!cacheDir.exists()) {
             cacheDir.mkdir();
         }
         try {
-            File mappingFile = new File(MAPPING_FILE);
-            if (!mappingFile.exists()) {
-                mappingFile.createNewFile();
+            index = new CacheIndex(new File(INDEX_FILE), new File(MAPPING_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de charger l'index du cache " + INDEX_FILE, e);
+        }
+        long loadStart = System.nanoTime();
+        Map<String, CacheCheckpoint.Record> checkpoint = CacheCheckpoint.read(new File(CHECKPOINT_FILE));
+        for (String url : index.urls()) {
+            String cacheFileName = index.get(url);
+            expiryWheel.schedule(url, getExpires(url, cacheFileName) + STALE_RETENTION);
+            CacheCheckpoint.Record record = checkpoint.get(url);
+            if (record != null && record.cacheFileName.equals(cacheFileName) && record.expires == index.getExpires(url)) {
+                diskPolicy.add(url, record.size, record.frequency, record.hot);
+            } else {
+                // Entrée écrite après le dernier point de reprise : sa taille est lue sur le disque
+                checkpoint.remove(url);
+                diskPolicy.add(url, new File(CACHE_DIRECTORY, cacheFileName).length(), 0, false);
             }
+        }
+        for (String url : checkpoint.keySet()) {
+            if (index.get(url) != null) {
+                hotSet.add(url);
+            }
+        }
+        Log.info("Index du cache chargé en " + (System.nanoTime() - loadStart) / 1000000 + " ms : "
+                + index.size() + " entrée(s), dont " + hotSet.size() + " reprise(s) du point de reprise");
+        // Capacité réduite depuis le dernier démarrage : on revient sous la limite
+        evict(diskPolicy.overflow());
+        writeBehind = new WriteBehindQueue(ConfigManager.getInt("cache.writebehind.queue", 1024),
+                !ConfigManager.get("cache.writebehind.overflow", "block").equalsIgnoreCase("sync"),
+                ConfigManager.getLong("cache.writebehind.interval", 20), index::flush);
+    }
+
+    private static ReentrantReadWriteLock diskLock(String cacheFileName) {
+        return diskLocks[(cacheFileName.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * Réponse fraîche en cache pour l'URL, ou null. L'appelant doit appeler release() une fois
+     * l'envoi terminé, pour que les pages mémoire de l'entrée puissent être recyclées. Chaque appel
+     * compte comme une requête, pour le taux de succès et l'estimation de fréquence.
+     */
+    public static CachedResponse get(String url) {
+        requestCount.incrementAndGet();
+        diskPolicy.recordAccess(url);
+        CachedResponse cached = lookup(url, false);
+        if (cached instanceof MemoryCache.Entry) {
+            memoryHitCount.incrementAndGet();
+        } else if (cached != null) {
+            diskHitCount.incrementAndGet();
+        }
+        if (cached != null && firstHitMillis.get() < 0) {
+            long elapsed = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            if (firstHitMillis.compareAndSet(-1, elapsed)) {
+                Log.info("Premier succès de cache " + elapsed + " ms après le lancement");
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Charge l'index (s'il ne l'est pas déjà) puis précharge en arrière-plan les entrées les plus
+     * demandées avant l'arrêt, dans la limite de cache.preload.bytes ; les connexions sont acceptées
+     * pendant ce temps.
+     */
+    public static void warmUp() {
+        Thread preload = new Thread(() -> {
+            long start = System.nanoTime();
+            int loaded = 0;
+            for (String url : hotSet) {
+                if (memoryCache.getUsedBytes() >= PRELOAD_BYTES) {
+                    break;
+                }
+                CachedResponse cached = lookup(url, true);
+                if (cached != null) {
+                    loaded += cached instanceof MemoryCache.Entry ? 1 : 0;
+                    cached.release();
+                }
+            }
+            Log.info("Préchargement du cache : " + loaded + " entrée(s), " + memoryCache.getUsedBytes()
+                    + " octets en " + (System.nanoTime() - start) / 1000000 + " ms");
+        }, "cache-preload");
+        preload.setDaemon(true);
+        preload.start();
+    }
+
+    // Écrit le point de reprise des métadonnées du cache : entrées protégées puis en probation, les plus demandées d'abord
+    public static synchronized void checkpoint() {
+        List<CacheCheckpoint.Record> records = new ArrayList<>();
+        addRecords(records, diskPolicy.protectedEntries(), true);
+        addRecords(records, diskPolicy.probationEntries(), false);
+        records.sort(Comparator.comparing((CacheCheckpoint.Record r) -> !r.hot)
+                .thenComparing(r -> -r.frequency));
+        try {
+            CacheCheckpoint.write(new File(CHECKPOINT_FILE), records);
         } catch (IOException e) {
-            System.err.println("Erreur lors de la création du fichier de mapping : " + e.getMessage());
+            Log.error("Erreur lors de l'écriture du point de reprise du cache : " + e.getMessage());
         }
     }
 
-    public static synchronized byte[] get(String url) {
+    private static void addRecords(List<CacheCheckpoint.Record> records, Map<String, Long> segment, boolean hot) {
+        List<String> urls = new ArrayList<>(segment.keySet());
+        // Du plus récent au moins récent : à fréquence égale, le tri stable garde cet ordre
+        Collections.reverse(urls);
+        for (String url : urls) {
+            String cacheFileName = index.get(url);
+            long expires = index.getExpires(url);
+            if (cacheFileName != null) {
+                records.add(new CacheCheckpoint.Record(url, cacheFileName, segment.get(url), expires,
+                        diskPolicy.frequency(url), hot));
+            }
+        }
+    }
+
+    /**
+     * Après un échec de get() : l'entrée expirée si elle l'est depuis moins de son délai de grâce
+     * (stale-while-revalidate), à servir pendant que l'appelant lance son actualisation ; sinon null.
+     */
+    public static CachedResponse getStaleWhileRevalidate(String url) {
+        CacheWriter pending = pendingWrites.get(url);
+        String cacheFileName = getCacheFileName(url);
+        if (pending == null && index.get(url) == null) {
+            return null;
+        }
+        long expires = pending != null ? pending.expires : getExpires(url, cacheFileName);
+        CachedResponse cached = lookup(url, true);
+        if (cached == null) {
+            return null;
+        }
+        HttpResponseHead head = HttpResponseHead.parse(cached.getHead());
+        if (head == null || System.currentTimeMillis() >= expires + Freshness.staleWhileRevalidate(head, STALE_GRACE)) {
+            cached.release();
+            return null;
+        }
+        staleHitCount.incrementAndGet();
+        return cached;
+    }
+
+    /**
+     * Au plus count entrées parmi les plus demandées (fréquence estimée d'au moins minFrequency)
+     * encore fraîches mais qui expirent avant deadline, des plus demandées aux moins demandées.
+     */
+    public static List<String> hotEntriesExpiring(long deadline, int count, int minFrequency) {
+        long now = System.currentTimeMillis();
+        PriorityQueue<String> top = new PriorityQueue<>(count + 1, Comparator.comparingInt(diskPolicy::frequency));
+        Set<String> seen = new HashSet<>();
+        // La roue range chaque entrée à son expiration plus le délai de conservation : seules les
+        // cases de l'intervalle sont lues, pas tout l'index
+        for (String url : expiryWheel.scheduledBetween(now + STALE_RETENTION, deadline + STALE_RETENTION)) {
+            String cacheFileName = index.get(url);
+            if (!seen.add(url) || cacheFileName == null || diskPolicy.frequency(url) < minFrequency) {
+                continue;
+            }
+            long expires = getExpires(url, cacheFileName);
+            if (expires > now && expires <= deadline) {
+                top.add(url);
+                if (top.size() > count) {
+                    top.poll();
+                }
+            }
+        }
+        List<String> urls = new ArrayList<>(top);
+        urls.sort(Comparator.comparingInt((String url) -> diskPolicy.frequency(url)).reversed());
+        return urls;
+    }
+
+    // Comme get(), sans compter de requête : nouvelle consultation pendant le traitement de la même requête
+    public static CachedResponse recheck(String url) {
+        return lookup(url, false);
+    }
+
+    // Réponse en cache même expirée, pour la revalider auprès de l'origine ; null si absente
+    public static CachedResponse getStale(String url) {
+        return lookup(url, true);
+    }
+
+    private static CachedResponse lookup(String url, boolean allowStale) {
         String cacheFileName = getCacheFileName(url);
+        CacheWriter pending = pendingWrites.get(url);
+        long expires = pending != null ? pending.expires : getExpires(url, cacheFileName);
+        if (!allowStale && System.currentTimeMillis() >= expires) {
+            return null;
+        }
 
         // Vérification du cache en mémoire
-        if (memoryCache.containsKey(cacheFileName)) {
-            System.out.println("Données trouvées en mémoire pour : " + cacheFileName);
-            return memoryCache.get(cacheFileName);
+        CachedResponse cached = memoryCache.acquire(cacheFileName);
+        if (cached != null) {
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("Données trouvées en mémoire pour : " + cacheFileName);
+            }
+            return cached;
+        }
+
+        // Écriture différée pas encore terminée
+        if (pending != null) {
+            cached = pending.openResponse();
+            if (cached != null) {
+                return cached;
+            }
         }
 
         // Vérification sur disque
+        Lock lock = diskLock(cacheFileName).readLock();
+        lock.lock();
+        try {
+            return readFromDisk(cacheFileName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ouvre le fichier de cache sans charger le corps sur le tas : il sera envoyé au client par
+     * FileChannel.transferTo. Les petites réponses sont d'abord copiées dans le cache mémoire.
+     */
+    private static CachedResponse readFromDisk(String cacheFileName) {
         File cacheFile = new File(CACHE_DIRECTORY, cacheFileName);
-        if (cacheFile.exists() && (System.currentTimeMillis() - cacheFile.lastModified()) <= CACHE_TTL) {
-            try (FileInputStream fis = new FileInputStream(cacheFile);
-                 ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-                byte[] buffer = new byte[8192]; // 8 Ko
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    bos.write(buffer, 0, bytesRead);
-                }
-                byte[] data = bos.toByteArray();
+        if (cacheFile.exists()) {
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+                long size = channel.size();
                 // Charger les données en mémoire si elles respectent les critères de taille
-                if (data.length <= MAX_MEMORY_ITEM_SIZE) {
-                    memoryCache.put(cacheFileName, data);
+                if (size <= MAX_MEMORY_ITEM_SIZE) {
+                    MemoryCache.Writer writer = memoryCache.newWriter();
+                    if (writer.write(channel, 0, size)) {
+                        memoryCache.put(cacheFileName, writer);
+                        CachedResponse cached = memoryCache.acquire(cacheFileName);
+                        if (cached != null) {
+                            channel.close();
+                            return cached;
+                        }
+                    }
                 }
-                return data;
+                return new FileResponse(channel, size);
             } catch (IOException e) {
-                System.err.println("Erreur lors de la lecture du cache: " + e.getMessage());
+                Log.error("Erreur lors de la lecture du cache: " + e.getMessage());
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {}
+                }
             }
         }
 
         return null;
     }
 
-    public static synchronized void put(String url, byte[] data) {
+    // Date d'expiration de l'entrée ; à défaut (index importé), fraîcheur par défaut depuis l'écriture du fichier
+    private static long getExpires(String url, String cacheFileName) {
+        long expires = index.getExpires(url);
+        if (expires > 0) {
+            return expires;
+        }
+        return new File(CACHE_DIRECTORY, cacheFileName).lastModified() + DEFAULT_TTL;
+    }
+
+    /**
+     * Réponse 304 reçue en revalidant l'entrée : ses en-têtes remplacent ceux de storedHead, l'en-tête
+     * stocké, et l'entrée repart pour une nouvelle durée sans retélécharger le corps. Le fichier de
+     * l'entrée est réécrit avec le nouvel en-tête par l'écriture différée.
+     */
+    public static void refresh(String url, HttpResponseHead storedHead, HttpResponseHead notModified) {
+        Compression.update(storedHead, notModified);
+        long expires = Freshness.expiresAt(storedHead, System.currentTimeMillis(), DEFAULT_TTL);
         String cacheFileName = getCacheFileName(url);
+        boolean stored = false;
+        Lock lock = diskLock(cacheFileName).writeLock();
+        lock.lock();
+        try {
+            if (new File(CACHE_DIRECTORY, cacheFileName).exists()) {
+                index.put(url, cacheFileName, expires);
+                stored = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        expiryWheel.schedule(url, expires + STALE_RETENTION);
+        if (stored) {
+            writeBehind.submit(new HeadUpdate(url, cacheFileName, storedHead.toBytes()));
+        }
+        if (Log.isEnabled(Log.DEBUG)) {
+            Log.debug("Entrée revalidée (304) pour l'URL : " + url);
+        }
+    }
 
-        // Ajouter au cache en mémoire si les données respectent les critères
-        if (data.length <= MAX_MEMORY_ITEM_SIZE) {
-            memoryCache.put(cacheFileName, data);
-        } else {
-            System.out.println("Données trop volumineuses pour être stockées en mémoire : " + cacheFileName);
+    // Appelée à chaque tick : retire les entrées expirées depuis plus de cache.stale.retention
+    public static void expireEntries() {
+        // Accès des requêtes depuis le dernier passage, reportés dans la politique du cache disque
+        diskPolicy.drainAccesses();
+        long now = System.currentTimeMillis();
+        for (String url : expiryWheel.advance(now)) {
+            String cacheFileName = index.get(url);
+            if (cacheFileName == null) {
+                continue;
+            }
+            Lock lock = diskLock(cacheFileName).writeLock();
+            lock.lock();
+            try {
+                // Une revalidation a pu repousser l'échéance : elle a alors reprogrammé l'entrée
+                if (cacheFileName.equals(index.get(url))
+                        && getExpires(url, cacheFileName) + STALE_RETENTION <= now
+                        && removeEntryLocked(url, cacheFileName)) {
+                    if (Log.isEnabled(Log.DEBUG)) {
+                        Log.debug("Entrée expirée retirée du cache : " + url);
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.error("Erreur lors de l'expiration de l'entrée " + url + " : " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
         }
+    }
 
-        // Ajouter au cache sur disque
+    // Retire l'entrée des deux niveaux et de l'index ; faux si le fichier n'a pu être supprimé
+    private static boolean removeEntryLocked(String url, String cacheFileName) {
+        // Une écriture différée en attente jettera son fichier temporaire
+        pendingWrites.remove(url);
+        memoryCache.remove(cacheFileName);
         File cacheFile = new File(CACHE_DIRECTORY, cacheFileName);
-        System.out.println("Nom du fichier de cache créé : " + cacheFile.getAbsolutePath());
-        try (FileOutputStream fos = new FileOutputStream(cacheFile)) {
-            fos.write(data);
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            Log.error("Erreur lors de la suppression du fichier de cache pour l'URL : " + url);
+            return false;
+        }
+        index.remove(url);
+        diskPolicy.remove(url);
+        return true;
+    }
+
+    // Supprime les entrées évincées par la politique disque, chacune sous son propre verrou
+    private static void evict(List<String> victims) {
+        for (String url : victims) {
+            String cacheFileName = index.get(url);
+            if (cacheFileName == null) {
+                continue;
+            }
+            Lock lock = diskLock(cacheFileName).writeLock();
+            lock.lock();
+            try {
+                // L'URL a pu être réadmise entre-temps
+                if (!diskPolicy.contains(url) && cacheFileName.equals(index.get(url))) {
+                    removeEntryLocked(url, cacheFileName);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static void put(String url, byte[] data) {
+        HttpResponseHead head = HttpResponseHead.parse(data);
+        long now = System.currentTimeMillis();
+        long expires = head == null ? now + DEFAULT_TTL : Freshness.expiresAt(head, now, DEFAULT_TTL);
+        try (CacheWriter writer = openWriter(url, expires)) {
+            writer.write(data);
+            writer.commit();
         } catch (IOException e) {
-            System.err.println("Erreur lors de l'écriture dans le cache: " + e.getMessage());
+            Log.error("Erreur lors de l'écriture dans le cache: " + e.getMessage());
         }
+    }
 
-        // Mettre à jour le fichier de mapping
-        updateMappingFile(url, cacheFileName);
+    /**
+     * Ouvre une écriture progressive dans le cache : les octets vont dans un fichier temporaire
+     * qui ne remplace l'entrée qu'au commit(). Une copie en mémoire est gardée tant que la taille
+     * reste sous cache.max.memory.item. La durée de fraîcheur est calculée d'après head, reçu à l'instant.
+     */
+    public static CacheWriter openWriter(String url, HttpResponseHead head) throws IOException {
+        return openWriter(url, Freshness.expiresAt(head, System.currentTimeMillis(), DEFAULT_TTL));
     }
 
-    public static synchronized void deleteAllFromUrl(String url) {
+    /**
+     * Met en cache une représentation complète dont le corps est déjà dans un fichier du répertoire
+     * du cache (entrée partielle complétée). L'en-tête et le corps sont assemblés par l'écriture
+     * différée, hors du thread de la requête ; le fichier body lui est confié et supprimé ensuite.
+     */
+    public static void storeFile(String url, HttpResponseHead head, long expires, File body) {
+        writeBehind.submit(new FileStore(url, getCacheFileName(url), head.toBytes(), expires, body));
+    }
+
+    private static CacheWriter openWriter(String url, long expires) throws IOException {
         String cacheFileName = getCacheFileName(url);
+        File tempFile = File.createTempFile(cacheFileName + ".", ".tmp", new File(CACHE_DIRECTORY));
+        return new CacheWriter(url, cacheFileName, tempFile, expires);
+    }
+
+    public static class CacheWriter extends OutputStream implements WriteBehindQueue.Task {
+        // Volume écrit au-delà duquel les octets sont rendus visibles aux lecteurs en attente
+        private static final int PUBLISH_THRESHOLD = 64 * 1024;
+        private static final long READ_TIMEOUT = ConfigManager.getLong("upstream.read.timeout", 30000);
+
+        private final String url;
+        private final String cacheFileName;
+        private final File tempFile;
+        private final long expires;
+        private final OutputStream fileOutput;
+        private MemoryCache.Writer memoryCopy = memoryCache.newWriter();
+        private long size;
+        private long published;
+        private boolean committed;
+        private boolean stored;
+        private boolean moved;
+        private boolean aborted;
 
-        // Supprimer du cache en mémoire
-        if (memoryCache.containsKey(cacheFileName)) {
-            memoryCache.remove(cacheFileName);
-            System.out.println("Données supprimées du cache en mémoire pour l'URL : " + url);
-        } else {
-            System.out.println("Aucune donnée à supprimer du cache en mémoire pour l'URL : " + url);
+        private CacheWriter(String url, String cacheFileName, File tempFile, long expires) throws IOException {
+            this.url = url;
+            this.cacheFileName = cacheFileName;
+            this.tempFile = tempFile;
+            this.expires = expires;
+            this.fileOutput = new BufferedOutputStream(new FileOutputStream(tempFile), PUBLISH_THRESHOLD);
         }
 
-        // Supprimer du cache sur disque
-        File cacheFile = new File(CACHE_DIRECTORY, cacheFileName);
-        if (cacheFile.exists()) {
-            if (cacheFile.delete()) {
-                System.out.println("Fichier de cache supprimé pour l'URL : " + url);
-                removeFromMappingFile(url);
-            } else {
-                System.err.println("Erreur lors de la suppression du fichier de cache pour l'URL : " + url);
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileOutput.write(b, off, len);
+            size += len;
+            if (memoryCopy != null && (size > MAX_MEMORY_ITEM_SIZE || !memoryCopy.write(b, off, len))) {
+                // Trop gros, ou budget mémoire épuisé : l'entrée ne sera servie que depuis le disque
+                memoryCopy.abandon();
+                memoryCopy = null;
+            }
+            if (size - published >= PUBLISH_THRESHOLD) {
+                flush();
+            }
+        }
+
+        // Rend les octets déjà reçus lisibles par les requêtes qui suivent ce téléchargement
+        @Override
+        public void flush() throws IOException {
+            fileOutput.flush();
+            synchronized (this) {
+                published = size;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Publie l'entrée si la politique disque l'admet : elle est aussitôt visible (mémoire, ou
+         * fichier temporaire) et son renommage, sa synchronisation et son enregistrement dans l'index
+         * sont confiés à l'écriture différée. Sinon la réponse est jetée, et la version précédente avec.
+         */
+        public void commit() throws IOException {
+            fileOutput.close();
+            List<String> victims;
+            Lock lock = diskLock(cacheFileName).writeLock();
+            lock.lock();
+            try {
+                victims = diskPolicy.admit(url, size);
+                synchronized (this) {
+                    committed = true;
+                    stored = victims != null;
+                    published = size;
+                    notifyAll();
+                }
+
+                if (victims == null) {
+                    // Les lecteurs déjà ouverts gardent leur accès au fichier temporaire
+                    if (memoryCopy != null) {
+                        memoryCopy.abandon();
+                        memoryCopy = null;
+                    }
+                    tempFile.delete();
+                    removeEntryLocked(url, cacheFileName);
+                    if (Log.isEnabled(Log.DEBUG)) {
+                        Log.debug("Réponse non admise dans le cache disque : " + url);
+                    }
+                    return;
+                }
+
+                if (memoryCopy != null) {
+                    memoryCache.put(cacheFileName, memoryCopy);
+                } else {
+                    memoryCache.remove(cacheFileName);
+                    if (Log.isEnabled(Log.DEBUG)) {
+                        Log.debug("Données trop volumineuses pour être stockées en mémoire : " + cacheFileName);
+                    }
+                }
+                pendingWrites.put(url, this);
+            } finally {
+                lock.unlock();
+            }
+            evict(victims);
+            // La réponse complète rend inutiles les intervalles reçus auparavant
+            PartialCache.remove(url);
+            expiryWheel.schedule(url, expires + STALE_RETENTION);
+            writeBehind.submit(this);
+        }
+
+        // Exécuté par l'écriture différée : fichier synchronisé, mis en place, puis enregistré dans l'index
+        @Override
+        public void persist() throws IOException {
+            File cacheFile = new File(CACHE_DIRECTORY, cacheFileName);
+            Lock lock = diskLock(cacheFileName).writeLock();
+            lock.lock();
+            try {
+                if (pendingWrites.get(url) != this) {
+                    // Remplacée par une réponse plus récente, ou supprimée entre-temps
+                    tempFile.delete();
+                    return;
+                }
+                try {
+                    if (FSYNC) {
+                        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                            channel.force(true);
+                        }
+                    }
+                    synchronized (this) {
+                        Files.move(tempFile.toPath(), cacheFile.toPath(),
+                                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                        moved = true;
+                    }
+                } catch (IOException e) {
+                    removeEntryLocked(url, cacheFileName);
+                    tempFile.delete();
+                    throw e;
+                }
+                index.put(url, cacheFileName, expires);
+                pendingWrites.remove(url, this);
+            } finally {
+                lock.unlock();
+            }
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("Nom du fichier de cache créé : " + cacheFile.getAbsolutePath());
+            }
+        }
+
+        // Réponse servie depuis le fichier de cette écriture, où qu'il soit ; null s'il a disparu
+        private synchronized CachedResponse openResponse() {
+            File source = moved ? new File(CACHE_DIRECTORY, cacheFileName) : tempFile;
+            try {
+                FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                try {
+                    return new FileResponse(channel, channel.size());
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        // Abandonne l'écriture si commit() n'a pas eu lieu (réponse tronquée, erreur...)
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (committed || aborted) {
+                    return;
+                }
+                aborted = true;
+                notifyAll();
+            }
+            if (memoryCopy != null) {
+                memoryCopy.abandon();
+            }
+            try {
+                fileOutput.close();
+            } catch (IOException ignored) {}
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.warn("Erreur lors de la suppression du fichier temporaire : " + tempFile.getName());
+            }
+        }
+
+        /**
+         * Flux qui relit la réponse pendant son écriture : il attend les octets suivants tant que
+         * l'écriture est en cours, se termine au commit() et échoue si l'écriture est abandonnée.
+         * null si la réponse, terminée, n'a pas été admise dans le cache.
+         */
+        public InputStream openReader() throws IOException {
+            synchronized (this) {
+                if (aborted) {
+                    throw new IOException("Téléchargement abandonné : " + url);
+                }
+                if (committed && !stored) {
+                    return null;
+                }
+                File source = moved ? new File(CACHE_DIRECTORY, cacheFileName) : tempFile;
+                return new TailInputStream(new RandomAccessFile(source, "r"));
+            }
+        }
+
+        private class TailInputStream extends InputStream {
+            private final RandomAccessFile file;
+            private long position;
+
+            TailInputStream(RandomAccessFile file) {
+                this.file = file;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long limit;
+                synchronized (CacheWriter.this) {
+                    long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+                    while (position >= published && !committed && !aborted) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new IOException("Délai dépassé en attendant le téléchargement : " + url);
+                        }
+                        try {
+                            CacheWriter.this.wait(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    if (aborted) {
+                        throw new IOException("Téléchargement abandonné : " + url);
+                    }
+                    limit = published;
+                }
+                if (position >= limit) {
+                    return -1;
+                }
+                int bytesRead = file.read(b, off, (int) Math.min(len, limit - position));
+                if (bytesRead > 0) {
+                    position += bytesRead;
+                }
+                return bytesRead;
+            }
+
+            @Override
+            public int available() {
+                synchronized (CacheWriter.this) {
+                    return (int) Math.min(Integer.MAX_VALUE, published - position);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                file.close();
             }
-        } else {
-            System.out.println("Le fichier de cache n'existe pas pour l'URL : " + url);
         }
     }
 
-    public static synchronized void clearCache() {
+    /**
+     * Réponse servie depuis son fichier de cache. Le canal reste ouvert jusqu'à release() : un
+     * commit() concurrent remplace le fichier par renommage sans perturber cet envoi.
+     */
+    private static class FileResponse extends CachedResponse {
+        private static final int HEAD_PROBE = 64 * 1024;
+
+        private final FileChannel file;
+        private final long size;
+        private final byte[] head;
+
+        FileResponse(FileChannel file, long size) throws IOException {
+            this.file = file;
+            this.size = size;
+            ByteBuffer probe = ByteBuffer.allocate((int) Math.min(size, HEAD_PROBE));
+            while (probe.hasRemaining()) {
+                if (file.read(probe, probe.position()) < 0) {
+                    break;
+                }
+            }
+            int headLength = Math.max(0, HttpResponseHead.indexOfHeadEnd(
+                    Arrays.copyOf(probe.array(), probe.position())));
+            this.head = Arrays.copyOf(probe.array(), headLength);
+        }
+
+        @Override
+        public byte[] getHead() {
+            return head;
+        }
+
+        @Override
+        public long getBodyLength() {
+            return size - head.length;
+        }
+
+        @Override
+        public void writeRange(OutputStream out, WritableByteChannel channel, long offset, long length)
+                throws IOException {
+            long position = head.length + offset;
+            long limit = position + length;
+            if (channel != null) {
+                out.flush();
+                // sendfile : les octets vont du cache de pages du noyau à la socket
+                while (position < limit) {
+                    position += file.transferTo(position, limit - position, channel);
+                }
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (position < limit) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), limit - position));
+                int bytesRead = file.read(buffer, position);
+                if (bytesRead < 0) {
+                    throw new EOFException("Fichier de cache tronqué");
+                }
+                out.write(buffer.array(), 0, bytesRead);
+                position += bytesRead;
+            }
+        }
+
+        @Override
+        public InputStream openBody() throws IOException {
+            return Channels.newInputStream(file.position(head.length));
+        }
+
+        @Override
+        public void release() {
+            try {
+                file.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Remplace l'en-tête stocké d'une entrée revalidée. Le corps est recopié de fichier à fichier
+     * (transferTo) vers un fichier temporaire, substitué à l'entrée seulement si elle n'a pas changé
+     * entre-temps ; la copie en mémoire, avec l'ancien en-tête, est retirée.
+     */
+    private static class HeadUpdate implements WriteBehindQueue.Task {
+        private final String url;
+        private final String cacheFileName;
+        private final byte[] head;
+
+        HeadUpdate(String url, String cacheFileName, byte[] head) {
+            this.url = url;
+            this.cacheFileName = cacheFileName;
+            this.head = head;
+        }
+
+        @Override
+        public void persist() throws IOException {
+            Path cachePath = new File(CACHE_DIRECTORY, cacheFileName).toPath();
+            File tempFile = File.createTempFile(cacheFileName + ".", ".tmp", new File(CACHE_DIRECTORY));
+            try {
+                FileChannel source;
+                BasicFileAttributes before;
+                Lock readLock = diskLock(cacheFileName).readLock();
+                readLock.lock();
+                try {
+                    if (pendingWrites.containsKey(url) || !cacheFileName.equals(index.get(url))) {
+                        return;
+                    }
+                    source = FileChannel.open(cachePath, StandardOpenOption.READ);
+                    before = Files.readAttributes(cachePath, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    return;
+                } finally {
+                    readLock.unlock();
+                }
+
+                try (source; FileChannel target = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                    ByteBuffer headBuffer = ByteBuffer.wrap(head);
+                    while (headBuffer.hasRemaining()) {
+                        target.write(headBuffer);
+                    }
+                    new FileResponse(source, source.size()).writeBody(OutputStream.nullOutputStream(), target);
+                    if (FSYNC) {
+                        target.force(true);
+                    }
+                }
+
+                Lock lock = diskLock(cacheFileName).writeLock();
+                lock.lock();
+                try {
+                    BasicFileAttributes current = Files.readAttributes(cachePath, BasicFileAttributes.class);
+                    if (!pendingWrites.containsKey(url) && cacheFileName.equals(index.get(url))
+                            && Objects.equals(before.fileKey(), current.fileKey())
+                            && before.lastModifiedTime().equals(current.lastModifiedTime())
+                            && before.size() == current.size()) {
+                        Files.move(tempFile.toPath(), cachePath,
+                                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                        memoryCache.remove(cacheFileName);
+                    }
+                } catch (NoSuchFileException e) {
+                    // Entrée supprimée pendant la copie
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                tempFile.delete();
+            }
+        }
+    }
+
+    // Entrée assemblée depuis un corps déjà sur le disque : copie de fichier à fichier, puis admission
+    private static class FileStore implements WriteBehindQueue.Task {
+        private final String url;
+        private final String cacheFileName;
+        private final byte[] head;
+        private final long expires;
+        private final File body;
+
+        FileStore(String url, String cacheFileName, byte[] head, long expires, File body) {
+            this.url = url;
+            this.cacheFileName = cacheFileName;
+            this.head = head;
+            this.expires = expires;
+            this.body = body;
+        }
+
+        @Override
+        public void persist() throws IOException {
+            File tempFile = File.createTempFile(cacheFileName + ".", ".tmp", new File(CACHE_DIRECTORY));
+            try {
+                long size;
+                try (FileChannel source = FileChannel.open(body.toPath(), StandardOpenOption.READ);
+                     FileChannel target = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                    ByteBuffer headBuffer = ByteBuffer.wrap(head);
+                    while (headBuffer.hasRemaining()) {
+                        target.write(headBuffer);
+                    }
+                    long length = source.size();
+                    long position = 0;
+                    while (position < length) {
+                        position += source.transferTo(position, length - position, target);
+                    }
+                    if (FSYNC) {
+                        target.force(true);
+                    }
+                    size = head.length + length;
+                }
+
+                List<String> victims;
+                Lock lock = diskLock(cacheFileName).writeLock();
+                lock.lock();
+                try {
+                    if (pendingWrites.containsKey(url)) {
+                        // Une réponse complète plus récente est en cours d'écriture
+                        return;
+                    }
+                    victims = diskPolicy.admit(url, size);
+                    if (victims == null) {
+                        removeEntryLocked(url, cacheFileName);
+                        if (Log.isEnabled(Log.DEBUG)) {
+                            Log.debug("Réponse non admise dans le cache disque : " + url);
+                        }
+                        return;
+                    }
+                    try {
+                        Files.move(tempFile.toPath(), new File(CACHE_DIRECTORY, cacheFileName).toPath(),
+                                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
+                        removeEntryLocked(url, cacheFileName);
+                        throw e;
+                    }
+                    memoryCache.remove(cacheFileName);
+                    index.put(url, cacheFileName, expires);
+                } finally {
+                    lock.unlock();
+                }
+                evict(victims);
+                expiryWheel.schedule(url, expires + STALE_RETENTION);
+            } finally {
+                tempFile.delete();
+                body.delete();
+            }
+        }
+    }
+
+    // Vrai si l'URL a une entrée complète, même expirée ou en cours d'écriture
+    public static boolean contains(String url) {
+        return index.get(url) != null || pendingWrites.containsKey(url);
+    }
+
+    // Retire l'entrée de l'URL après une requête qui a pu modifier la ressource (POST, PUT, DELETE...)
+    public static void invalidate(String url) {
+        PartialCache.remove(url);
+        String cacheFileName = getCacheFileName(url);
+        Lock lock = diskLock(cacheFileName).writeLock();
+        lock.lock();
+        try {
+            if (index.get(url) != null || pendingWrites.containsKey(url) || memoryCache.containsKey(cacheFileName)) {
+                removeEntryLocked(url, cacheFileName);
+                if (Log.isEnabled(Log.DEBUG)) {
+                    Log.debug("Entrée invalidée : " + url);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static void deleteAllFromUrl(String url) {
+        PartialCache.remove(url);
+        String cacheFileName = getCacheFileName(url);
+        Lock lock = diskLock(cacheFileName).writeLock();
+        lock.lock();
+        try {
+            deleteLocked(url, cacheFileName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void deleteLocked(String url, String cacheFileName) {
+        if (index.get(url) == null && !pendingWrites.containsKey(url) && !memoryCache.containsKey(cacheFileName)) {
+            Log.info("Aucune entrée en cache à supprimer pour l'URL : " + url);
+            return;
+        }
+        // Comme invalidate() : une écriture différée encore en file est abandonnée avec le reste
+        if (removeEntryLocked(url, cacheFileName)) {
+            Log.info("Entrée supprimée du cache pour l'URL : " + url);
+        }
+    }
+
+    public static void clearCache() {
+        // Toutes les bandes de verrous, toujours dans le même ordre
+        for (ReentrantReadWriteLock lock : diskLocks) {
+            lock.writeLock().lock();
+        }
+        try {
+            clearLocked();
+        } finally {
+            for (int i = LOCK_STRIPES - 1; i >= 0; i--) {
+                diskLocks[i].writeLock().unlock();
+            }
+        }
+    }
+
+    private static void clearLocked() {
         // Vider le cache en mémoire
         memoryCache.clear();
         System.out.println("cache en mémoire vidé");
@@ -139,27 +1036,19 @@ public class CacheManager {
         }
         System.out.println("cache en dossier vidé");
 
-        // Vider le fichier de mapping
-        try (FileWriter writer = new FileWriter(MAPPING_FILE)) {
-            writer.write("");
-        } catch (IOException e) {
-            System.err.println("Erreur lors de la suppression du fichier de mapping : " + e.getMessage());
-        }
+        // Vider l'index et les entrées partielles, dont les fichiers viennent d'être supprimés
+        PartialCache.clear();
+        pendingWrites.clear();
+        index.clear();
+        diskPolicy.clear();
     }
 
     // Méthode pour générer le nom de fichier cache à partir de l'URL
-    private static String getCacheFileName(String url) {
-        // Lire le fichier de mapping pour trouver le nom de fichier de cache
-        try (Scanner scanner = new Scanner(new File(MAPPING_FILE))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] parts = line.split("=");
-                if (parts.length == 2 && parts[0].equals(url)) {
-                    return parts[1];
-                }
-            }
-        } catch (FileNotFoundException e) {
-            System.err.println("Fichier de mapping non trouvé : " + e.getMessage());
+    static String getCacheFileName(String url) {
+        // Consulter l'index en mémoire
+        String cacheFileName = index.get(url);
+        if (cacheFileName != null) {
+            return cacheFileName;
         }
 
         // Si non trouvé, générer le nom de fichier de cache normalement
@@ -176,64 +1065,58 @@ public class CacheManager {
         }
     }
 
-    // Méthode pour mettre à jour le fichier de mapping
-    private static void updateMappingFile(String url, String cacheFileName) {
-        try (FileWriter writer = new FileWriter(MAPPING_FILE, true);
-             BufferedWriter bufferedWriter = new BufferedWriter(writer)) {
-            bufferedWriter.write(url + "=" + cacheFileName);
-            bufferedWriter.newLine();
-        } catch (IOException e) {
-            System.err.println("Erreur lors de la mise à jour du fichier de mapping : " + e.getMessage());
-        }
-    }
-
-    // Méthode pour supprimer une entrée du fichier de mapping    
-    private static void removeFromMappingFile(String url) {
-        Path tempFilePath = Paths.get(MAPPING_FILE + ".tmp");
-        try (BufferedReader reader = new BufferedReader(new FileReader(MAPPING_FILE));
-            BufferedWriter writer = new BufferedWriter(new FileWriter(tempFilePath.toFile()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.startsWith(url + "=")) {
-                    writer.write(line);
-                    writer.newLine();
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Erreur lors de la suppression du fichier de mapping : " + e.getMessage());
-            return; // Arrêter la méthode en cas d'erreur de lecture/écriture
-        }
-
-        // Remplacer l'ancien fichier de mapping par le nouveau
-        Path originalFilePath = Paths.get(MAPPING_FILE);
-        try {
-            Files.move(tempFilePath, originalFilePath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("Fichier de mapping mis à jour.");
-        } catch (IOException e) {
-            System.err.println("Erreur lors de la mise à jour du fichier de mapping : " + e.getMessage());
-            // Supprimer le fichier temporaire si la mise à jour échoue
-            try {
-                Files.deleteIfExists(tempFilePath);
-            } catch (IOException ex) {
-                System.err.println("Erreur lors de la suppression du fichier temporaire : " + ex.getMessage());
-            }
-        }
+    // Écritures différées terminées et index persisté proprement à l'arrêt du serveur
+    public static void close() {
+        Log.info("Écriture des entrées de cache en attente : " + writeBehind.getPendingCount());
+        writeBehind.close(ConfigManager.getLong("proxy.shutdown.timeout", 5000));
+        checkpoint();
+        index.close();
     }
 
     // Méthode pour lister les fichiers du cache
-    public static synchronized void listCache() {
-        System.out.println("Contenu du cache en hashmap :");
+    public static void listCache() {
+        System.out.println("Contenu du cache en mémoire (" + memoryCache.getUsedBytes() + " / "
+                + memoryCache.getCapacityBytes() + " octets) :");
         memoryCache.keySet().forEach(key -> System.out.println("  - " + key));
 
-        System.out.println("Contenu du cache dans le dossier :");
+        System.out.println("Contenu du cache dans le dossier (" + diskPolicy.getUsedBytes() + " / "
+                + diskPolicy.getCapacity() + " octets) :");
         File cacheDir = new File(CACHE_DIRECTORY);
         if (cacheDir.exists() && cacheDir.isDirectory()) {
             File[] cacheFiles = cacheDir.listFiles();
             if (cacheFiles != null) {
                 for (File file : cacheFiles) {
-                    System.out.println("  - " + file.getName());
+                    if (!file.getName().endsWith(".tmp") && !file.getName().endsWith(".part")) {
+                        System.out.println("  - " + file.getName());
+                    }
                 }
             }
         }
     }
+
+    // Taux de succès du cache par niveau depuis le démarrage, et activité de la politique disque
+    public static void appendStats(StringBuilder report) {
+        long requests = requestCount.get();
+        long memoryHits = memoryHitCount.get();
+        long diskHits = diskHitCount.get();
+        long staleHits = staleHitCount.get();
+        report.append("requêtes : ").append(requests).append(", succès mémoire : ").append(memoryHits)
+                .append(", succès disque : ").append(diskHits).append(", servies périmées : ").append(staleHits)
+                .append(", échecs : ").append(requests - memoryHits - diskHits - staleHits).append('\n');
+        report.append(String.format("taux de succès : %.1f %%",
+                requests == 0 ? 0.0 : 100.0 * (memoryHits + diskHits + staleHits) / requests)).append('\n');
+        report.append("cache mémoire : ").append(memoryCache.getUsedBytes()).append(" / ")
+                .append(memoryCache.getCapacityBytes()).append(" octets, ").append(memoryCache.size())
+                .append(" entrée(s)\n");
+        report.append("cache disque : ").append(diskPolicy.getUsedBytes()).append(" / ").append(diskPolicy.getCapacity())
+                .append(" octets, admises : ").append(diskPolicy.getAdmittedCount()).append(", refusées : ")
+                .append(diskPolicy.getRejectedCount()).append(", évincées : ").append(diskPolicy.getEvictedCount())
+                .append('\n');
+        long firstHit = firstHitMillis.get();
+        report.append("premier succès de cache : ")
+                .append(firstHit < 0 ? "aucun" : firstHit + " ms après le lancement").append('\n');
+        report.append("écriture différée : ").append(writeBehind.getPendingCount()).append(" en attente, ")
+                .append(writeBehind.getTaskCount()).append(" écrites en ").append(writeBehind.getBatchCount())
+                .append(" lots, ").append(writeBehind.getOverflowCount()).append(" débordements de file\n");
+    }
 }
@@ -0,0 +1,275 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Actualisation des entrées du cache en arrière-plan : celles servies périmées pendant leur délai
+ * de grâce (stale-while-revalidate), et les plus demandées peu avant leur expiration, pour qu'aucun
+ * client n'attende l'origine. Le nombre d'actualisations simultanées et leur débit total sont
+ * plafonnés ; au-delà de la file d'attente, les demandes sont abandonnées.
+ */
+public final class CacheRefresher {
+    private static final int THREADS = Math.max(1, ConfigManager.getInt("cache.refresh.threads", 2));
+    private static final int QUEUE = Math.max(1, ConfigManager.getInt("cache.refresh.queue", 256));
+    // Débit total des actualisations, en octets par seconde ; 0 pour ne pas le limiter
+    private static final long BANDWIDTH = ConfigManager.getSize("cache.refresh.bandwidth", 1024 * 1024);
+    // Actualisation anticipée : nombre d'entrées, délai avant expiration et fréquence minimale
+    private static final int TOP = ConfigManager.getInt("cache.refresh.top", 100);
+    private static final long AHEAD = ConfigManager.getLong("cache.refresh.ahead", 10000);
+    private static final int MIN_FREQUENCY = ConfigManager.getInt("cache.refresh.min.frequency", 2);
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE), runnable -> {
+                Thread thread = new Thread(runnable, "cache-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // URL en attente ou en cours d'actualisation : une seule à la fois par URL
+    private static final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Instant (ns) à partir duquel le prochain octet peut être lu sans dépasser le débit
+    private static long nextSendNanos;
+
+    private static final AtomicLong refreshedCount = new AtomicLong();
+    private static final AtomicLong revalidatedCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static final AtomicLong aheadCount = new AtomicLong();
+
+    private CacheRefresher() {
+    }
+
+    // Programme l'actualisation de l'URL ; faux si elle est déjà prévue ou si la file est pleine
+    public static boolean submit(String url) {
+        if (!pending.add(url)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh(url);
+                } finally {
+                    pending.remove(url);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(url);
+            droppedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    // Appelée périodiquement : actualise les entrées les plus demandées qui vont bientôt expirer
+    public static void refreshHotEntries() {
+        if (TOP <= 0) {
+            return;
+        }
+        try {
+            for (String url : CacheManager.hotEntriesExpiring(System.currentTimeMillis() + AHEAD, TOP, MIN_FREQUENCY)) {
+                if (submit(url)) {
+                    aheadCount.incrementAndGet();
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.error("Erreur lors de la sélection des entrées à actualiser : " + e.getMessage());
+        }
+    }
+
+    public static void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Revalide l'entrée auprès de l'origine (If-None-Match, If-Modified-Since) ; une réponse 304
+     * prolonge l'entrée, une nouvelle version la remplace par la même écriture que pour un échec.
+     */
+    private static void refresh(String url) {
+        CachedResponse stale = CacheManager.getStale(url);
+        if (stale == null) {
+            // Supprimée entre-temps
+            return;
+        }
+        HttpResponseHead storedHead = HttpResponseHead.parse(stale.getHead());
+        stale.release();
+        if (storedHead == null) {
+            return;
+        }
+
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return;
+        }
+        String host = uri.getHost();
+        int port = uri.getPort() != -1 ? uri.getPort() : 80;
+        if (host == null) {
+            return;
+        }
+        ByteArrayOutputStream request = buildRequest(uri, host, port, storedHead);
+
+        UpstreamConnection connection = null;
+        boolean reusable = false;
+        try {
+            connection = send(host, port, request);
+            HttpResponseHead head = connection.getResponseHead();
+            if (head.getStatusCode() == 304) {
+                reusable = connection.transferBody("GET", head, OutputStream.nullOutputStream());
+                CacheManager.refresh(url, storedHead, head);
+                revalidatedCount.incrementAndGet();
+                return;
+            }
+            if (head.getStatusCode() >= 500) {
+                // Origine en difficulté : l'entrée actuelle reste servie, elle sera retentée plus tard
+                reusable = connection.transferBody("GET", head, OutputStream.nullOutputStream());
+                failedCount.incrementAndGet();
+                Metrics.recordOriginError();
+                Log.warn("Échec de l'actualisation de " + url + " : statut " + head.getStatusCode());
+                return;
+            }
+            if (!Freshness.isStorable(head)) {
+                // L'entrée reste telle quelle jusqu'à son retrait
+                reusable = connection.transferBody("GET", head, OutputStream.nullOutputStream());
+                return;
+            }
+            reusable = store(url, connection, head);
+            refreshedCount.incrementAndGet();
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("Entrée actualisée en arrière-plan : " + url);
+            }
+        } catch (IOException e) {
+            failedCount.incrementAndGet();
+            Metrics.recordOriginError();
+            Log.warn("Échec de l'actualisation de " + url + " : " + e.getMessage());
+        } finally {
+            if (connection != null) {
+                UpstreamPool.release(connection, reusable);
+            }
+        }
+    }
+
+    // Nouvelle version écrite dans le cache, compressée si elle s'y prête, au débit autorisé
+    private static boolean store(String url, UpstreamConnection connection, HttpResponseHead head) throws IOException {
+        boolean compress = Compression.isCompressible(head);
+        try (CacheManager.CacheWriter writer = CacheManager.openWriter(url, head)) {
+            writer.write((compress ? Compression.storedHead(head) : head.unframed()).toBytes());
+            Compression.Encoder encoder = compress ? Compression.newEncoder(writer) : null;
+            try {
+                // Seul le contenu est stocké, sans découpage chunked
+                OutputStream content = new ThrottledOutputStream(compress ? encoder : writer);
+                boolean reusable = connection.transferBody("GET", head, OutputStream.nullOutputStream(), content);
+                if (encoder != null) {
+                    encoder.finish();
+                }
+                writer.commit();
+                return reusable;
+            } finally {
+                if (encoder != null) {
+                    encoder.close();
+                }
+            }
+        }
+    }
+
+    private static ByteArrayOutputStream buildRequest(URI uri, String host, int port, HttpResponseHead storedHead) {
+        StringBuilder request = new StringBuilder("GET ");
+        String path = uri.getRawPath();
+        request.append(path == null || path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) {
+            request.append('?').append(uri.getRawQuery());
+        }
+        request.append(" HTTP/1.1\r\nHost: ").append(port == 80 ? host : host + ":" + port)
+                .append("\r\nConnection: keep-alive\r\n");
+        if (storedHead.get("ETag") != null) {
+            request.append("If-None-Match: ").append(Compression.originETag(storedHead.get("ETag"))).append("\r\n");
+        }
+        if (storedHead.get("Last-Modified") != null) {
+            request.append("If-Modified-Since: ").append(storedHead.get("Last-Modified")).append("\r\n");
+        }
+        request.append("\r\n");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(request.length());
+        bytes.writeBytes(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return bytes;
+    }
+
+    // Comme pour les requêtes des clients, rejouée une fois si une connexion du pool a été fermée par l'origine
+    private static UpstreamConnection send(String host, int port, ByteArrayOutputStream request) throws IOException {
+        while (true) {
+            long start = System.nanoTime();
+            UpstreamConnection connection = UpstreamPool.acquire(host, port);
+            try {
+                connection.sendRequest(request);
+                connection.readResponseHead();
+                Metrics.recordOriginFetch(System.nanoTime() - start);
+                return connection;
+            } catch (IOException e) {
+                UpstreamPool.release(connection, false);
+                if (!connection.isReused()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Attend que le débit partagé par toutes les actualisations permette de recevoir bytes octets de plus
+    private static void pace(int bytes) throws IOException {
+        if (BANDWIDTH <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (CacheRefresher.class) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextSendNanos);
+            nextSendNanos = start + bytes * 1000000000L / BANDWIDTH;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Actualisation interrompue");
+            }
+        }
+    }
+
+    // Les octets reçus de l'origine passent ici : la lecture suivante attend son tour
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            pace(len);
+        }
+    }
+
+    public static void appendStats(StringBuilder report) {
+        report.append("actualisations : ").append(pending.size()).append(" prévues, ")
+                .append(refreshedCount.get()).append(" nouvelles versions, ")
+                .append(revalidatedCount.get()).append(" revalidées (304), ")
+                .append(failedCount.get()).append(" échecs, ")
+                .append(droppedCount.get()).append(" abandonnées (file pleine), anticipées : ")
+                .append(aheadCount.get()).append('\n');
+    }
+}
@@ -0,0 +1,32 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+// Réponse trouvée dans le cache : en-tête sur le tas, corps servi directement depuis son support
+public abstract class CachedResponse {
+
+    // Ligne de statut et en-têtes tels que stockés, ligne vide comprise
+    public abstract byte[] getHead();
+
+    public abstract long getBodyLength();
+
+    /**
+     * Envoie le corps au client. Si channel n'est pas null, le corps y est écrit sans passer par
+     * le tas ; out est vidé avant pour conserver l'ordre des octets.
+     */
+    public void writeBody(OutputStream out, WritableByteChannel channel) throws IOException {
+        writeRange(out, channel, 0, getBodyLength());
+    }
+
+    // Comme writeBody(), pour les length octets du corps à partir de offset (réponse 206)
+    public abstract void writeRange(OutputStream out, WritableByteChannel channel, long offset, long length)
+            throws IOException;
+
+    // Corps lu comme un flux, pour le transformer avant l'envoi (décompression...)
+    public abstract InputStream openBody() throws IOException;
+
+    // À appeler une fois la réponse envoyée : le support peut alors être recyclé
+    public void release() {
+    }
+}
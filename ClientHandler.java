@@ -1,101 +1,903 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Set;
 /*import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;*/
 
 public class ClientHandler implements Runnable {
+    private static final int KEEP_ALIVE_TIMEOUT = ConfigManager.getInt("client.keepalive.timeout", 15000);
+    private static final int KEEP_ALIVE_MAX_REQUESTS = ConfigManager.getInt("client.keepalive.max.requests", 100);
+    // Chemin local servant les statistiques du proxy, réservé aux clients de la machine
+    private static final String STATS_PATH = ConfigManager.get("proxy.stats.path", "/__proxy/stats");
+    private static final String HEALTH_PATH = ConfigManager.get("proxy.health.path", "/__proxy/health");
+    // Méthodes sans effet sur la ressource, et celles qui peuvent être rejouées sans risque
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE");
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
     private final Socket clientSocket;
+    private final boolean parkWhenIdle;
+    private boolean parked;
+    // En-tête de la requête vers l'origine, réutilisé d'une requête à l'autre
+    private final ByteArrayOutputStream upstreamHead = new ByteArrayOutputStream(1024);
 
     public ClientHandler(Socket clientSocket) {
+        this(clientSocket, false);
+    }
+
+    // parkWhenIdle : rendre la connexion au moteur plutôt que bloquer un thread en attendant la requête suivante
+    public ClientHandler(Socket clientSocket, boolean parkWhenIdle) {
         this.clientSocket = clientSocket;
+        this.parkWhenIdle = parkWhenIdle;
+    }
+
+    // Vrai si la connexion est restée ouverte, inactive, pour être surveillée par le moteur
+    public boolean isParked() {
+        return parked;
     }
 
     @Override
     public void run() {
-        try (
-            InputStream clientInput = clientSocket.getInputStream();
-            OutputStream clientOutput = clientSocket.getOutputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(clientInput, StandardCharsets.UTF_8));
-            BufferedOutputStream bos = new BufferedOutputStream(clientOutput)
-        ) {
-            // Lire la requête HTTP
-            String requestLine = reader.readLine();
-            if (requestLine == null || !requestLine.startsWith("GET")) {
-                System.err.println("Requête non valide reçue : " + requestLine);
-                bos.write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-                return;
+        BufferedOutputStream bos = null;
+        byte[] buffer = BufferPool.acquire();
+        try {
+            clientSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+            // En-tête et corps sont souvent écrits séparément : pas d'attente de l'algorithme de Nagle
+            clientSocket.setTcpNoDelay(true);
+            InputStream input = clientSocket.getInputStream();
+            HttpRequestParser request = new HttpRequestParser(input, buffer);
+            bos = new BufferedOutputStream(new CountingOutputStream(clientSocket.getOutputStream()));
+
+            // Requêtes successives sur la même connexion ; les requêtes pipelinées sont
+            // traitées dans l'ordre d'arrivée, donc leurs réponses aussi
+            int served = 0;
+            while (true) {
+                try {
+                    if (!request.next()) {
+                        break;
+                    }
+                } catch (SocketTimeoutException e) {
+                    // Connexion inactive trop longtemps
+                    break;
+                }
+                served++;
+
+                // La dernière requête permise reçoit Connection: close
+                boolean keepAlive = handleRequest(request, bos, served < KEEP_ALIVE_MAX_REQUESTS);
+
+                // Tant que d'autres requêtes pipelinées attendent, les réponses s'accumulent dans le tampon
+                boolean pending = request.hasBuffered() || input.available() > 0;
+                if (!pending || !keepAlive) {
+                    bos.flush();
+                }
+                if (!keepAlive) {
+                    break;
+                }
+                if (parkWhenIdle && !pending) {
+                    parked = true;
+                    return;
+                }
+            }
+        } catch (ProtocolException e) {
+            // En-tête invalide ou corps mal délimité : la suite du flux ne peut plus être interprétée
+            Log.warn("Requête mal formée : " + e.getMessage());
+            Metrics.recordClientError();
+            try {
+                bos.write(errorResponse("400 Bad Request"));
+                bos.flush();
+            } catch (IOException ignored) {}
+        } catch (IOException e) {
+            Metrics.recordClientError();
+            Log.error("Erreur lors du traitement de la requête : " + e.getMessage(), e);
+            if (bos != null) {
+                try {
+                    bos.write(errorResponse("500 Internal Server Error"));
+                    bos.flush();
+                } catch (IOException ignored) {}
+            }
+        } finally {
+            // Connexion mise en attente : rien n'est resté dans le tampon
+            BufferPool.release(buffer);
+            try {
+                if (!parked && !clientSocket.isClosed()) {
+                    clientSocket.close();
+                }
+            } catch (IOException e) {
+                Log.error("Erreur lors de la fermeture de la connexion : " + e.getMessage());
             }
+        }
+    }
 
-            String[] requestParts = requestLine.split(" ");
-            if (requestParts.length < 2) {
-                System.err.println("Requête mal formée.");
-                bos.write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-                return;
+    /**
+     * Traite une requête ; renvoie vrai si la connexion peut servir une requête suivante.
+     * mayKeepAlive : faux si la connexion doit être fermée après cette réponse, quoi que demande le client.
+     */
+    private boolean handleRequest(HttpRequestParser request, BufferedOutputStream bos,
+                                  boolean mayKeepAlive) throws IOException {
+        long start = System.nanoTime();
+        String method = request.getMethod();
+        boolean http11 = request.isHttp11();
+        boolean keepAlive = mayKeepAlive && request.isKeepAlive();
+
+        if (request.isMethod("CONNECT")) {
+            Log.warn("Méthode CONNECT non prise en charge");
+            Metrics.recordClientError();
+            bos.write(errorResponse("501 Not Implemented"));
+            return false;
+        }
+
+        String target = request.getTarget();
+        if (request.isMethod("GET") && target.equals(STATS_PATH)) {
+            request.skipBody();
+            return writeStats(bos, keepAlive);
+        }
+        if (request.isMethod("GET") && target.equals(HEALTH_PATH)) {
+            request.skipBody();
+            bos.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nCache-Control: no-store\r\n"
+                    + "Content-Length: 3\r\nConnection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\nok\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            return keepAlive;
+        }
+
+        // Construire l'URL complète
+        String urlString = target;
+        if (!urlString.startsWith("http://") && !urlString.startsWith("https://")) {
+            urlString = "http://localhost" + urlString;
+        }
+
+        URI uri;
+        try {
+            uri = new URI(urlString);
+        } catch (URISyntaxException e) {
+            Log.warn("URL invalide : " + e.getMessage());
+            Metrics.recordClientError();
+            bos.write(errorResponse("400 Bad Request"));
+            return false;
+        }
+        String host = uri.getHost();
+        if (host == null) {
+            Log.warn("URL sans hôte : " + urlString);
+            Metrics.recordClientError();
+            bos.write(errorResponse("400 Bad Request"));
+            return false;
+        }
+        int port = uri.getPort() != -1 ? uri.getPort() : 80;
+
+        // Seules les requêtes GET sans corps ni authentification passent par le cache
+        if (!request.isMethod("GET") || request.hasBody() || request.hasHeader("Authorization")) {
+            try {
+                return forward(urlString, uri, host, port, method, request, bos, keepAlive, http11);
+            } finally {
+                Metrics.MISS_LATENCY.recordNanos(System.nanoTime() - start);
             }
+        }
 
-            // Construire l'URL complète
-            String urlString = requestParts[1];
-            if (!urlString.startsWith("http://") && !urlString.startsWith("https://")) {
-                urlString = "http://localhost" + urlString;
+        boolean fromPeer = request.hasHeader(HttpRequestParser.PEER_HEADER);
+        if (fromPeer) {
+            PeerCluster.recordServedForPeer();
+        }
+
+        // Vérifier le cache
+        CachedResponse cached = CacheManager.get(urlString);
+        if (cached != null) {
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("Cache hit pour l'URL : " + urlString);
             }
+            boolean result = writeResponse(bos, cached, request, keepAlive);
+            Metrics.HIT_LATENCY.recordNanos(System.nanoTime() - start);
+            return result;
+        }
 
-            URI uri = new URI(urlString);
-            String host = uri.getHost();
-            int port = 80;
+        // Expirée depuis peu : servie aussitôt, et actualisée en arrière-plan pour les requêtes suivantes
+        cached = CacheManager.getStaleWhileRevalidate(urlString);
+        if (cached != null) {
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("Entrée périmée servie pendant son actualisation : " + urlString);
+            }
+            CacheRefresher.submit(urlString);
+            boolean result = writeResponse(bos, cached, request, keepAlive);
+            Metrics.HIT_LATENCY.recordNanos(System.nanoTime() - start);
+            return result;
+        }
 
-            // Vérifier le cache
-            byte[] cachedData = CacheManager.get(urlString);
-            if (cachedData != null) {
-                System.out.println("Cache hit pour l'URL : " + urlString);
-                bos.write(cachedData);
-                bos.flush();
-                return;
+        try {
+            // Mode cluster : demandée au nœud responsable de l'URL, sauf si la requête vient d'un pair
+            if (!fromPeer) {
+                UpstreamConnection connection = sendToOwner(urlString, uri, request);
+                if (connection != null) {
+                    return relay(connection, connection.getResponseHead(), method, bos, keepAlive, http11);
+                }
+            }
+            // Intervalle d'une ressource absente du cache : demandé tel quel, sans télécharger le reste
+            ByteRange range = request.hasHeader("Range") ? ByteRange.parse(request.getHeader("Range")) : null;
+            if (range != null && !CacheManager.contains(urlString)) {
+                return serveRange(urlString, uri, host, port, request, range, bos, keepAlive, http11);
             }
+            return serveMiss(urlString, uri, host, port, request, bos, keepAlive, http11);
+        } finally {
+            Metrics.MISS_LATENCY.recordNanos(System.nanoTime() - start);
+        }
+    }
 
-            // Requête au serveur distant
-            try (
-                Socket serverSocket = new Socket(host, port);
-                OutputStream serverOutput = serverSocket.getOutputStream();
-                InputStream serverInput = serverSocket.getInputStream();
-            ) {
-                // Transmettre la requête au serveur distant
-                String requestHeaders = requestLine + "\r\n" +
-                                        "Host: " + host + "\r\n" +
-                                        "Connection: close\r\n\r\n";
-                serverOutput.write(requestHeaders.getBytes(StandardCharsets.UTF_8));
-                serverOutput.flush();
-
-                // Lire et transmettre la réponse du serveur
-                ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream();
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = serverInput.read(buffer)) != -1) {
-                    responseBuffer.write(buffer, 0, bytesRead);
-                }
-
-                // Stocker la réponse dans le cache
-                byte[] serverResponse = responseBuffer.toByteArray();
-                CacheManager.put(urlString, serverResponse);
-
-                // Transmettre au client
-                bos.write(serverResponse);
-                bos.flush();
+    // Réponse absente du cache : suivre un téléchargement en cours, ou le mener
+    private boolean serveMiss(String urlString, URI uri, String host, int port, HttpRequestParser request,
+                              BufferedOutputStream bos, boolean keepAlive, boolean http11) throws IOException {
+        String method = request.getMethod();
+        // Un téléchargement de cette URL est peut-être déjà en cours : on le suit au lieu de solliciter l'origine
+        CachedResponse cached;
+        RequestCoalescer.Flight flight = RequestCoalescer.join(urlString);
+        if (flight != null) {
+            try (InputStream shared = flight.openStream()) {
+                HttpResponseHead sharedHead = shared == null ? null : readSharedHead(shared);
+                if (sharedHead != null && mustDecode(sharedHead, request)) {
+                    return writeDecoded(bos, sharedHead, shared, method, keepAlive, http11);
+                }
+                if (sharedHead != null && http11 && sharedHead.hasBody(method) && sharedHead.getContentLength() < 0) {
+                    // Taille connue seulement quand le meneur aura fini : découpée en chunks pour garder la connexion
+                    sharedHead.set("Transfer-Encoding", "chunked");
+                    boolean clientKeepAlive = prepareForClient(sharedHead, method, keepAlive, http11);
+                    bos.write(sharedHead.toBytes());
+                    ChunkedOutputStream chunked = new ChunkedOutputStream(bos);
+                    copyShared(shared, chunked);
+                    chunked.finish();
+                    return clientKeepAlive;
+                }
+                if (sharedHead != null) {
+                    boolean clientKeepAlive = prepareForClient(sharedHead, method, keepAlive, http11);
+                    bos.write(sharedHead.toBytes());
+                    copyShared(shared, bos);
+                    return clientKeepAlive;
+                }
+            }
+            // Le meneur a seulement revalidé l'entrée, reçu une réponse non stockable ou échoué avant d'écrire
+            cached = CacheManager.recheck(urlString);
+            if (cached != null) {
+                return writeResponse(bos, cached, request, keepAlive);
             }
-        } catch (IOException | URISyntaxException e) {
-            System.err.println("Erreur lors du traitement de la requête : " + e.getMessage());
-            e.printStackTrace();
+            return fetchFromOrigin(urlString, uri, host, port, request, bos, keepAlive, http11, false, null);
+        }
+
+        try {
+            // Le téléchargement précédent a pu se terminer entre la consultation du cache et join()
+            cached = CacheManager.recheck(urlString);
+            if (cached != null) {
+                return writeResponse(bos, cached, request, keepAlive);
+            }
+            // Une entrée expirée est revalidée auprès de l'origine plutôt que retéléchargée
+            return fetchFromOrigin(urlString, uri, host, port, request, bos, keepAlive, http11, true,
+                    CacheManager.getStale(urlString));
+        } finally {
+            RequestCoalescer.finish(urlString);
+        }
+    }
+
+    /**
+     * Sert l'intervalle depuis l'entrée partielle de l'URL s'il y a déjà été reçu ; sinon le demande
+     * à l'origine, et garde la réponse 206 dans l'entrée partielle. Ces requêtes ne sont pas
+     * regroupées : chacune porte sur un intervalle différent.
+     */
+    private boolean serveRange(String urlString, URI uri, String host, int port, HttpRequestParser request,
+                               ByteRange range, OutputStream bos, boolean keepAlive, boolean http11) throws IOException {
+        String method = request.getMethod();
+        CachedResponse partial = PartialCache.get(urlString, range);
+        if (partial != null) {
+            HttpResponseHead partialHead = HttpResponseHead.parse(partial.getHead());
+            // If-Range d'une autre version : il faudrait la réponse complète, que l'entrée n'a pas
+            if (requestedRange(request, partialHead) != null) {
+                if (Log.isEnabled(Log.DEBUG)) {
+                    Log.debug("Intervalle servi depuis une entrée partielle : " + urlString);
+                }
+                return writeResponse(bos, partial, partialHead, request, keepAlive);
+            }
+            partial.release();
+        }
+
+        startRequestHead(method, uri, host, port, request, true);
+        writeHeader("Range", range.toString());
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            writeHeader("If-Range", ifRange);
+        }
+        writeAscii(upstreamHead, "\r\n");
+        UpstreamConnection connection = sendToOrigin(host, port, request, true);
+        HttpResponseHead head = connection.getResponseHead();
+        if (head.getStatusCode() == 200) {
+            // L'origine ignore l'intervalle : la réponse complète est mise en cache comme d'habitude
+            return relayFromOrigin(urlString, connection, head, method, bos, keepAlive, http11, false);
+        }
+        PartialCache.Filler filler = head.getStatusCode() == 206 && Freshness.isStorable(head)
+                ? PartialCache.open(urlString, head) : null;
+        if (filler == null) {
+            return relay(connection, head, method, bos, keepAlive, http11);
+        }
+
+        boolean reusable = false;
+        try (filler) {
+            boolean clientKeepAlive = prepareForClient(head, method, keepAlive, http11);
+            bos.write(head.toBytes());
+            // Le client reçoit la réponse telle quelle ; l'entrée partielle, le seul contenu
+            TeeOutputStream tee = new TeeOutputStream(bos, OutputStream.nullOutputStream());
             try {
-                clientSocket.getOutputStream().write("HTTP/1.1 500 Internal Server Error\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-            } catch (IOException ignored) {}
+                reusable = connection.transferBody(method, head, tee, filler);
+            } catch (IOException e) {
+                Metrics.recordOriginError();
+                throw e;
+            }
+            if (tee.getClientFailure() != null) {
+                throw tee.getClientFailure();
+            }
+            // Le client n'attend pas l'éventuelle recopie de l'entrée complétée dans le cache
+            bos.flush();
+            return clientKeepAlive;
+        } finally {
+            UpstreamPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * lead : rendre le téléchargement visible aux requêtes regroupées sur cette URL.
+     * stale : entrée expirée à revalider ; servie telle quelle si l'origine répond 304.
+     */
+    private boolean fetchFromOrigin(String urlString, URI uri, String host, int port, HttpRequestParser request,
+                                    OutputStream bos, boolean keepAlive, boolean http11,
+                                    boolean lead, CachedResponse stale) throws IOException {
+        String method = request.getMethod();
+        boolean staleServed = false;
+        try {
+            HttpResponseHead staleHead = stale == null ? null : HttpResponseHead.parse(stale.getHead());
+
+            // Requête au serveur distant, sur une connexion persistante du pool
+            startRequestHead(method, uri, host, port, request, true);
+            if (staleHead != null) {
+                if (staleHead.get("ETag") != null) {
+                    writeHeader("If-None-Match", Compression.originETag(staleHead.get("ETag")));
+                }
+                if (staleHead.get("Last-Modified") != null) {
+                    writeHeader("If-Modified-Since", staleHead.get("Last-Modified"));
+                }
+            }
+            writeAscii(upstreamHead, "\r\n");
+            UpstreamConnection connection = sendToOrigin(host, port, request, true);
+            HttpResponseHead head = connection.getResponseHead();
+
+            if (staleHead != null && head.getStatusCode() == 304) {
+                boolean reusable = false;
+                try {
+                    reusable = connection.transferBody(method, head, OutputStream.nullOutputStream());
+                } finally {
+                    UpstreamPool.release(connection, reusable);
+                }
+                CacheManager.refresh(urlString, staleHead, head);
+                Metrics.recordRevalidation();
+                if (lead) {
+                    // Les requêtes en attente trouveront l'entrée revalidée dans le cache
+                    RequestCoalescer.release(urlString);
+                }
+                staleServed = true;
+                return writeResponse(bos, stale, staleHead, request, keepAlive);
+            }
+            return relayFromOrigin(urlString, connection, head, method, bos, keepAlive, http11, lead);
         } finally {
+            if (stale != null && !staleServed) {
+                stale.release();
+            }
+        }
+    }
+
+    private boolean relayFromOrigin(String urlString, UpstreamConnection connection, HttpResponseHead head,
+                                    String method, OutputStream bos, boolean keepAlive, boolean http11,
+                                    boolean lead) throws IOException {
+        if (!Freshness.isStorable(head)) {
+            // no-store, private ou Vary : transmis au client sans passer par le cache
+            if (lead) {
+                RequestCoalescer.release(urlString);
+            }
+            return relay(connection, head, method, bos, keepAlive, http11);
+        }
+
+        boolean reusable = false;
+        // Corps textuel stocké compressé ; le client reçoit pendant ce temps la réponse telle quelle
+        boolean compress = Compression.isCompressible(head);
+
+        // Le corps est transmis au client au fur et à mesure qu'il arrive, et écrit en même temps dans le cache
+        try (CacheManager.CacheWriter cacheWriter = CacheManager.openWriter(urlString, head)) {
+            cacheWriter.write((compress ? Compression.storedHead(head) : head.unframed()).toBytes());
+            if (lead) {
+                RequestCoalescer.publish(urlString, cacheWriter);
+            }
+
+            // Un client HTTP/1.0 reçoit le seul contenu d'une réponse chunked, délimité par la fermeture
+            boolean dechunk = !http11 && head.isChunked();
+            HttpResponseHead clientHead = dechunk ? head.unframed() : head;
+            boolean clientKeepAlive = prepareForClient(clientHead, method, keepAlive, http11);
+            bos.write(clientHead.toBytes());
+            bos.flush();
+
+            // Le cache reçoit le seul contenu, sans découpage chunked : sa taille sera celle de l'entrée.
+            // Si le client part en cours de route, le cache continue d'être rempli pour les autres
+            Compression.Encoder encoder = compress ? Compression.newEncoder(cacheWriter) : null;
+            TeeOutputStream tee = dechunk
+                    ? new TeeOutputStream(bos, compress ? encoder : cacheWriter)
+                    : new TeeOutputStream(bos, OutputStream.nullOutputStream());
             try {
-                if (clientSocket != null && !clientSocket.isClosed()) {
-                    clientSocket.close();
+                reusable = dechunk
+                        ? connection.transferBody(method, head, OutputStream.nullOutputStream(), tee)
+                        : connection.transferBody(method, head, tee, compress ? encoder : cacheWriter);
+                if (encoder != null) {
+                    encoder.finish();
                 }
             } catch (IOException e) {
-                System.err.println("Erreur lors de la fermeture de la connexion : " + e.getMessage());
+                // Les erreurs côté client sont retenues par le tee : celle-ci vient de l'origine
+                Metrics.recordOriginError();
+                throw e;
+            } finally {
+                if (encoder != null) {
+                    encoder.close();
+                }
+            }
+            cacheWriter.commit();
+            if (tee.getClientFailure() != null) {
+                throw tee.getClientFailure();
+            }
+            return clientKeepAlive;
+        } finally {
+            UpstreamPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Méthodes autres que GET, requêtes avec un corps ou authentifiées : transmises à l'origine
+     * avec leur corps, et la réponse au client, sans passer par le cache.
+     */
+    private boolean forward(String urlString, URI uri, String host, int port, String method,
+                            HttpRequestParser request, OutputStream bos, boolean keepAlive,
+                            boolean http11) throws IOException {
+        if (request.hasBody() && http11 && request.hasToken("Expect", "100-continue")) {
+            // Le proxy lit le corps lui-même : le client n'a pas à attendre la réponse de l'origine
+            bos.write(CONTINUE);
+            bos.flush();
+        }
+        startRequestHead(method, uri, host, port, request, false);
+        writeAscii(upstreamHead, "\r\n");
+        // Un corps déjà envoyé ne peut pas être relu, et POST ou PATCH ne se rejouent pas
+        boolean replayable = !request.hasBody() && IDEMPOTENT_METHODS.contains(method);
+        UpstreamConnection connection = sendToOrigin(host, port, request, replayable);
+        HttpResponseHead head = connection.getResponseHead();
+        if (!SAFE_METHODS.contains(method) && head.getStatusCode() < 400) {
+            // La ressource a pu changer : sa copie en cache n'est plus valable (RFC 9111, 4.4)
+            CacheManager.invalidate(urlString);
+        }
+        return relay(connection, head, method, bos, keepAlive, http11);
+    }
+
+    // Transmet la réponse de l'origine au client telle quelle, puis rend la connexion au pool
+    private static boolean relay(UpstreamConnection connection, HttpResponseHead head, String method,
+                                 OutputStream bos, boolean keepAlive, boolean http11) throws IOException {
+        boolean reusable = false;
+        try {
+            if (!http11 && head.isChunked()) {
+                // Un client HTTP/1.0 ne connaît pas le codage chunked : le seul contenu, délimité par la fermeture
+                HttpResponseHead clientHead = head.unframed();
+                boolean clientKeepAlive = prepareForClient(clientHead, method, keepAlive, http11);
+                bos.write(clientHead.toBytes());
+                reusable = connection.transferBody(method, head, OutputStream.nullOutputStream(), bos);
+                return clientKeepAlive;
+            }
+            boolean clientKeepAlive = prepareForClient(head, method, keepAlive, http11);
+            bos.write(head.toBytes());
+            reusable = connection.transferBody(method, head, bos);
+            return clientKeepAlive;
+        } finally {
+            UpstreamPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Prépare dans upstreamHead la ligne de requête (forme origine), Host et les en-têtes du client
+     * retransmissibles ; la ligne vide finale est ajoutée par l'appelant.
+     */
+    private void startRequestHead(String method, URI uri, String host, int port,
+                                  HttpRequestParser request, boolean forCache) throws IOException {
+        upstreamHead.reset();
+        String path = uri.getRawPath();
+        writeAscii(upstreamHead, method);
+        writeAscii(upstreamHead, " ");
+        writeAscii(upstreamHead, path == null || path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) {
+            writeAscii(upstreamHead, "?");
+            writeAscii(upstreamHead, uri.getRawQuery());
+        }
+        writeAscii(upstreamHead, " HTTP/1.1\r\n");
+        writeHeader("Host", port == 80 ? host : host + ":" + port);
+        writeHeader("Connection", "keep-alive");
+        request.writeHeaders(upstreamHead, forCache);
+    }
+
+    private void writeHeader(String name, String value) {
+        writeAscii(upstreamHead, name);
+        writeAscii(upstreamHead, ": ");
+        writeAscii(upstreamHead, value);
+        writeAscii(upstreamHead, "\r\n");
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.write(text.charAt(i));
+        }
+    }
+
+    private static HttpResponseHead readSharedHead(InputStream shared) {
+        try {
+            return HttpResponseHead.read(shared);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void copyShared(InputStream shared, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = shared.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+            if (shared.available() == 0) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Écrit une réponse en cache en adaptant ses en-têtes de connexion pour ce client. Le corps
+     * est écrit directement sur le canal de la socket quand elle en a un, sans copie sur le tas.
+     */
+    private boolean writeResponse(OutputStream out, CachedResponse response, HttpRequestParser request,
+                                  boolean keepAlive) throws IOException {
+        return writeResponse(out, response, HttpResponseHead.parse(response.getHead()), request, keepAlive);
+    }
+
+    // head : en-tête à envoyer à la place de celui stocké (ex. mis à jour par une revalidation)
+    private boolean writeResponse(OutputStream out, CachedResponse response, HttpResponseHead head,
+                                  HttpRequestParser request, boolean keepAlive) throws IOException {
+        String method = request.getMethod();
+        boolean http11 = request.isHttp11();
+        try {
+            if (head == null) {
+                out.write(response.getHead());
+                response.writeBody(out, null);
+                return false;
+            }
+            // Temps passé en cache, ajouté à l'âge qu'avait la réponse à sa réception (RFC 9111, 5.1)
+            head.set("Age", String.valueOf(Freshness.currentAge(head, System.currentTimeMillis())));
+            if (mustDecode(head, request)) {
+                try (InputStream body = response.openBody()) {
+                    return writeDecoded(out, head, body, method, keepAlive, http11);
+                }
+            }
+            ByteRange range = requestedRange(request, head);
+            if (range != null) {
+                return writeRange(out, response, head, range, method, keepAlive, http11);
+            }
+            if (head.getStatusCode() == 200 && !head.isChunked() && !Compression.isEncoded(head)) {
+                head.set("Accept-Ranges", "bytes");
+            }
+
+            if (head.hasBody(method) && !head.isChunked() && head.getContentLength() < 0) {
+                // Corps lu jusqu'à la fermeture par l'origine : sa taille est désormais connue
+                head.set("Content-Length", String.valueOf(response.getBodyLength()));
+            }
+            keepAlive = prepareForClient(head, method, keepAlive, http11);
+
+            out.write(head.toBytes());
+            WritableByteChannel channel = clientSocket.getChannel();
+            response.writeBody(out, channel);
+            if (channel != null) {
+                // Corps écrit sur le canal, hors du flux compté
+                Metrics.addBytesServed(response.getBodyLength());
+            }
+            return keepAlive;
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * Intervalle à servir depuis la réponse en cache, ou null pour la réponse complète : pas de
+     * Range valide, corps encodé ou découpé en chunks, ou If-Range désignant une autre version.
+     */
+    private static ByteRange requestedRange(HttpRequestParser request, HttpResponseHead head) {
+        if (!request.hasHeader("Range") || head.getStatusCode() != 200 || head.isChunked()
+                || Compression.isEncoded(head)) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            // Comparaison forte : une étiquette faible ne valide jamais un intervalle
+            boolean matches = ifRange.startsWith("\"") ? ifRange.equals(head.get("ETag"))
+                    : ifRange.equals(head.get("Last-Modified"));
+            if (!matches) {
+                return null;
+            }
+        }
+        return ByteRange.parse(request.getHeader("Range"));
+    }
+
+    // Réponse 206 pour l'intervalle, lu à sa position dans le cache, ou 416 s'il est hors de la réponse
+    private boolean writeRange(OutputStream out, CachedResponse response, HttpResponseHead head, ByteRange range,
+                               String method, boolean keepAlive, boolean http11) throws IOException {
+        long length = response.getBodyLength();
+        if (!range.isSatisfiable(length)) {
+            head.setStatus(416, "Range Not Satisfiable");
+            head.set("Content-Range", "bytes */" + length);
+            head.set("Content-Length", "0");
+            keepAlive = prepareForClient(head, method, keepAlive, http11);
+            out.write(head.toBytes());
+            return keepAlive;
+        }
+        long start = range.start(length);
+        long end = range.end(length);
+        head.setStatus(206, "Partial Content");
+        head.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        head.set("Content-Length", String.valueOf(end - start + 1));
+        head.set("Accept-Ranges", "bytes");
+        keepAlive = prepareForClient(head, method, keepAlive, http11);
+        out.write(head.toBytes());
+        if (head.hasBody(method)) {
+            WritableByteChannel channel = clientSocket.getChannel();
+            response.writeRange(out, channel, start, end - start + 1);
+            if (channel != null) {
+                Metrics.addBytesServed(end - start + 1);
+            }
+        }
+        return keepAlive;
+    }
+
+    // Corps gzip (stocké compressé, ou reçu ainsi de l'origine) que le client n'accepte pas
+    private static boolean mustDecode(HttpResponseHead head, HttpRequestParser request) {
+        return Compression.isEncoded(head) && !head.isChunked()
+                && !Compression.isAccepted(request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * Envoie la réponse décompressée au fil de l'eau. Sa taille n'est pas connue d'avance : le
+     * corps est découpé en chunks pour un client HTTP/1.1, et délimité par la fermeture sinon.
+     */
+    private static boolean writeDecoded(OutputStream out, HttpResponseHead head, InputStream body, String method,
+                                        boolean keepAlive, boolean http11) throws IOException {
+        Compression.prepareDecoded(head);
+        boolean hasBody = head.hasBody(method);
+        if (hasBody && http11) {
+            head.set("Transfer-Encoding", "chunked");
+        }
+        keepAlive = prepareForClient(head, method, keepAlive, http11);
+        out.write(head.toBytes());
+        if (hasBody) {
+            if (http11) {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+                Compression.decode(body, chunked);
+                chunked.finish();
+            } else {
+                Compression.decode(body, out);
+            }
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Ajuste l'en-tête Connection de la réponse pour ce client. La connexion n'est gardée que si
+     * le client la demande et que la fin du corps lui est signalée sans fermeture.
+     */
+    private static boolean prepareForClient(HttpResponseHead head, String method,
+                                            boolean keepAlive, boolean http11) throws IOException {
+        boolean framed = !head.hasBody(method)
+                || (head.isChunked() ? http11 : head.getContentLength() >= 0);
+        keepAlive &= framed;
+        head.set("Connection", keepAlive ? "keep-alive" : "close");
+        head.remove("Keep-Alive");
+        return keepAlive;
+    }
+
+    // Statistiques du proxy en texte brut ; refusées aux clients distants
+    private boolean writeStats(OutputStream out, boolean keepAlive) throws IOException {
+        if (!clientSocket.getInetAddress().isLoopbackAddress()) {
+            out.write(errorResponse("403 Forbidden"));
+            return false;
+        }
+        byte[] body = Metrics.report().getBytes(StandardCharsets.UTF_8);
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nCache-Control: no-store\r\n"
+                + "Content-Length: " + body.length + "\r\nConnection: " + (keepAlive ? "keep-alive" : "close")
+                + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(body);
+        return keepAlive;
+    }
+
+    private static byte[] errorResponse(String status) {
+        return ("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Une connexion du pool peut avoir été fermée par l'origine entre deux requêtes :
+    // dans ce cas, et tant que rien n'a été reçu, on rejoue la requête sur une autre connexion
+    private UpstreamConnection sendToOrigin(String host, int port, HttpRequestParser request,
+                                            boolean replayable) throws IOException {
+        while (true) {
+            long start = System.nanoTime();
+            UpstreamConnection connection;
+            try {
+                connection = UpstreamPool.acquire(host, port);
+            } catch (IOException e) {
+                Metrics.recordOriginError();
+                throw e;
+            }
+            try {
+                connection.sendRequest(upstreamHead, request);
+                connection.readResponseHead();
+                Metrics.recordOriginFetch(System.nanoTime() - start);
+                return connection;
+            } catch (ProtocolException e) {
+                // Corps de la requête du client mal délimité : l'origine n'y est pour rien
+                UpstreamPool.release(connection, false);
+                throw e;
+            } catch (IOException e) {
+                UpstreamPool.release(connection, false);
+                if (!replayable || !connection.isReused()) {
+                    Metrics.recordOriginError();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transmet la requête telle que reçue du client (conditions, intervalle et Accept-Encoding
+     * compris) au pair responsable de l'URL, qui la sert depuis son cache ou l'origine. Un pair
+     * injoignable est retiré de l'anneau et l'URL passe au suivant ; un pair engorgé y reste et la
+     * requête est servie ici. null si la requête revient à ce nœud.
+     */
+    private UpstreamConnection sendToOwner(String urlString, URI uri, HttpRequestParser request) throws IOException {
+        PeerCluster.Peer peer;
+        while ((peer = PeerCluster.ownerOf(urlString)) != null) {
+            upstreamHead.reset();
+            writeAscii(upstreamHead, request.getMethod());
+            writeAscii(upstreamHead, " ");
+            writeAscii(upstreamHead, urlString);
+            writeAscii(upstreamHead, " HTTP/1.1\r\n");
+            writeHeader("Host", uri.getRawAuthority());
+            writeHeader("Connection", "keep-alive");
+            writeHeader(HttpRequestParser.PEER_HEADER, PeerCluster.selfName());
+            request.writeHeaders(upstreamHead, false);
+            writeAscii(upstreamHead, "\r\n");
+            try {
+                UpstreamConnection connection = sendToPeer(peer, request);
+                PeerCluster.recordForward(peer);
+                if (Log.isEnabled(Log.DEBUG)) {
+                    Log.debug("Requête relayée au pair " + peer + " : " + urlString);
+                }
+                return connection;
+            } catch (ConnectException | NoRouteToHostException | UnknownHostException e) {
+                PeerCluster.reportUnreachable(peer, e);
+            } catch (IOException e) {
+                PeerCluster.reportBackpressure(peer, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Comme vers l'origine, rejouée si une connexion du pool avait été fermée par le pair
+    private UpstreamConnection sendToPeer(PeerCluster.Peer peer, HttpRequestParser request) throws IOException {
+        while (true) {
+            UpstreamConnection connection = UpstreamPool.acquire(peer.getHost(), peer.getPort());
+            try {
+                connection.sendRequest(upstreamHead, request);
+                connection.readResponseHead();
+                return connection;
+            } catch (IOException e) {
+                UpstreamPool.release(connection, false);
+                if (!connection.isReused()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Compte les octets envoyés au client par le flux de la socket
+    private static class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            Metrics.addBytesServed(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            Metrics.addBytesServed(len);
+        }
+    }
+
+    // Codage chunked d'un corps de taille inconnue ; finish() écrit le dernier bloc, vide
+    private static class ChunkedOutputStream extends FilterOutputStream {
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                // Un bloc vide marquerait la fin du corps
+                return;
+            }
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+            out.write('\r');
+            out.write('\n');
+            out.write(b, off, len);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        void finish() throws IOException {
+            out.write('0');
+            out.write('\r');
+            out.write('\n');
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+    // Duplique le corps de la réponse vers le client et vers le cache ; une erreur côté client
+    // est mémorisée sans interrompre l'écriture dans le cache
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream client;
+        private final OutputStream cache;
+        private IOException clientFailure;
+
+        TeeOutputStream(OutputStream client, OutputStream cache) {
+            this.client = client;
+            this.cache = cache;
+        }
+
+        IOException getClientFailure() {
+            return clientFailure;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            cache.write(b, off, len);
+            if (clientFailure == null) {
+                try {
+                    client.write(b, off, len);
+                } catch (IOException e) {
+                    clientFailure = e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            cache.flush();
+            if (clientFailure == null) {
+                try {
+                    client.flush();
+                } catch (IOException e) {
+                    clientFailure = e;
+                }
             }
         }
     }
@@ -0,0 +1,293 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stockage compressé des réponses textuelles : le corps est compressé en gzip une fois, à l'écriture
+ * dans le cache, puis servi tel quel aux clients qui acceptent gzip et décompressé au fil de l'eau
+ * pour les autres. Les tailles des niveaux mémoire et disque sont alors celles du corps compressé.
+ */
+public final class Compression {
+    // gzip, ou none pour stocker les réponses telles que reçues
+    private static final boolean ENABLED = ConfigManager.get("cache.compression", "none").equalsIgnoreCase("gzip");
+    // 1 : le plus rapide, 9 : le plus compact
+    private static final int LEVEL = Math.max(Deflater.BEST_SPEED,
+            Math.min(Deflater.BEST_COMPRESSION, ConfigManager.getInt("cache.compression.level", 6)));
+    private static final long MIN_SIZE = ConfigManager.getSize("cache.compression.min.size", 1024);
+    // Préfixes (text/), suffixes (+xml) ou types exacts
+    private static final String[] TYPES = ConfigManager.get("cache.compression.types",
+            "text/,application/javascript,application/json,application/xml,image/svg+xml,+json,+xml")
+            .toLowerCase(Locale.ROOT).split("\\s*,\\s*");
+
+    // Ajouté à l'ETag de l'origine : la représentation compressée par le proxy est une autre représentation
+    private static final String ETAG_SUFFIX = "+gzip";
+
+    private static final LongAdder compressedResponses = new LongAdder();
+    private static final LongAdder originalBytes = new LongAdder();
+    private static final LongAdder compressedBytes = new LongAdder();
+    private static final LongAdder decompressedResponses = new LongAdder();
+
+    private Compression() {
+    }
+
+    /**
+     * Vrai si la réponse doit être stockée compressée : corps textuel non encodé, assez grand s'il
+     * annonce sa taille, et que l'origine n'interdit pas de transformer (no-transform).
+     */
+    public static boolean isCompressible(HttpResponseHead head) throws IOException {
+        if (!ENABLED || !head.hasBody("GET") || head.getStatusCode() != 200
+                || head.hasToken("Cache-Control", "no-transform")) {
+            return false;
+        }
+        String encoding = head.get("Content-Encoding");
+        if (encoding != null && !encoding.trim().equalsIgnoreCase("identity")) {
+            return false;
+        }
+        long length = head.getContentLength();
+        if (length >= 0 && length < MIN_SIZE) {
+            return false;
+        }
+        String type = head.get("Content-Type");
+        if (type == null) {
+            return false;
+        }
+        int semicolon = type.indexOf(';');
+        type = (semicolon >= 0 ? type.substring(0, semicolon) : type).trim().toLowerCase(Locale.ROOT);
+        for (String accepted : TYPES) {
+            if (accepted.isEmpty()) {
+                continue;
+            }
+            if (accepted.endsWith("/") ? type.startsWith(accepted)
+                    : accepted.startsWith("+") ? type.endsWith(accepted) : type.equals(accepted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * En-tête stocké avec le corps compressé : sa taille n'est connue qu'une fois l'écriture finie,
+     * elle sera donc déduite de l'entrée au moment de servir la réponse.
+     */
+    public static HttpResponseHead storedHead(HttpResponseHead head) {
+        HttpResponseHead stored = HttpResponseHead.parse(head.toBytes());
+        stored.remove("Content-Length");
+        stored.remove("Transfer-Encoding");
+        stored.set("Content-Encoding", "gzip");
+        String etag = head.get("ETag");
+        if (etag != null) {
+            stored.set("ETag", encodedETag(etag));
+        }
+        String vary = head.get("Vary");
+        if (vary == null || vary.isBlank()) {
+            stored.set("Vary", "Accept-Encoding");
+        } else if (!head.hasToken("Vary", "Accept-Encoding")) {
+            stored.set("Vary", vary + ", Accept-Encoding");
+        }
+        return stored;
+    }
+
+    /**
+     * Met à jour l'en-tête stocké d'après la réponse 304 de l'origine. Celle-ci porte l'ETag de la
+     * représentation d'origine : une entrée compressée par le proxy garde le suffixe du sien.
+     */
+    public static void update(HttpResponseHead stored, HttpResponseHead notModified) {
+        boolean transformed = isTransformed(stored.get("ETag"));
+        stored.update(notModified);
+        if (transformed) {
+            stored.set("ETag", encodedETag(stored.get("ETag")));
+        }
+    }
+
+    // ETag de l'origine, pour un If-None-Match : sans le suffixe ajouté à la représentation compressée
+    public static String originETag(String etag) {
+        if (!isTransformed(etag)) {
+            return etag;
+        }
+        etag = etag.trim();
+        return etag.substring(0, etag.length() - ETAG_SUFFIX.length() - 1) + "\"";
+    }
+
+    // ETag de la représentation compressée : le suffixe est inséré avant le guillemet final
+    static String encodedETag(String etag) {
+        etag = etag.trim();
+        if (!etag.endsWith("\"") || etag.length() < 2 || isTransformed(etag)) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + ETAG_SUFFIX + "\"";
+    }
+
+    private static boolean isTransformed(String etag) {
+        return etag != null && etag.trim().endsWith(ETAG_SUFFIX + "\"");
+    }
+
+    // Corps encodé en gzip, qu'il ait été compressé par le proxy ou déjà par l'origine
+    public static boolean isEncoded(HttpResponseHead head) {
+        String encoding = head.get("Content-Encoding");
+        if (encoding == null) {
+            return false;
+        }
+        encoding = encoding.trim();
+        return encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip");
+    }
+
+    // Vrai si l'Accept-Encoding du client admet gzip (q=0 le refuse) ; sans en-tête, identity seulement
+    public static boolean isAccepted(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] parameters = part.split(";");
+            String coding = parameters[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    /**
+     * En-tête de la réponse décompressée : ni codage ni taille, le corps sera délimité par l'appelant.
+     * Décompressé, un corps compressé par le proxy redevient celui de l'origine et reprend son ETag ;
+     * un corps reçu compressé de l'origine n'a plus droit qu'à un validateur faible.
+     */
+    public static void prepareDecoded(HttpResponseHead head) {
+        head.remove("Content-Encoding");
+        head.remove("Content-Length");
+        head.remove("Transfer-Encoding");
+        String etag = head.get("ETag");
+        if (isTransformed(etag)) {
+            head.set("ETag", originETag(etag));
+        } else if (etag != null && !etag.trim().startsWith("W/")) {
+            head.set("ETag", "W/" + etag.trim());
+        }
+    }
+
+    // Décompresse le corps gzip vers out, au fil de l'eau
+    public static void decode(InputStream body, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (GZIPInputStream gzip = new GZIPInputStream(body, 8192)) {
+            int bytesRead;
+            while ((bytesRead = gzip.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+        decompressedResponses.increment();
+    }
+
+    public static Encoder newEncoder(OutputStream target) throws IOException {
+        return new Encoder(target);
+    }
+
+    /**
+     * Compresse le corps reçu vers le cache. finish() termine le flux gzip ; close() sans finish()
+     * (réponse abandonnée) libère seulement le compresseur, sans rien écrire de plus.
+     */
+    public static class Encoder extends OutputStream {
+        private final CountingStream counter;
+        private final LevelGzipOutputStream gzip;
+        private long original;
+        private boolean done;
+
+        // L'en-tête gzip est écrit dans target dès la construction
+        private Encoder(OutputStream target) throws IOException {
+            this.counter = new CountingStream(target);
+            this.gzip = new LevelGzipOutputStream(counter, LEVEL);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            gzip.write(b, off, len);
+            original += len;
+        }
+
+        public void finish() throws IOException {
+            gzip.finish();
+            gzip.flush();
+            done = true;
+            gzip.end();
+            compressedResponses.increment();
+            originalBytes.add(original);
+            compressedBytes.add(counter.count);
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                gzip.end();
+            }
+        }
+    }
+
+    // Niveau de compression réglable ; end() libère la mémoire native du compresseur sans fermer la cible
+    private static class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+
+    private static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    public static void appendStats(StringBuilder report) {
+        if (!ENABLED) {
+            report.append("compression : désactivée\n");
+            return;
+        }
+        long original = originalBytes.sum();
+        long compressed = compressedBytes.sum();
+        report.append("compression : ").append(compressedResponses.sum()).append(" réponse(s), ")
+                .append(original).append(" -> ").append(compressed).append(" octets")
+                .append(String.format(", rapport %.2f", compressed == 0 ? 0.0 : (double) original / compressed))
+                .append(", décompressées pour les clients : ").append(decompressedResponses.sum()).append('\n');
+    }
+}
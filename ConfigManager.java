@@ -7,6 +7,7 @@ import java.util.concurrent.TimeUnit;
 
 public class ConfigManager {
     private static final Properties properties = new Properties();
+    private static ScheduledExecutorService cacheCleaner;
 
     static {
         String configFilePath = System.getProperty("config.file", "file/config.properties");
@@ -38,34 +39,73 @@ public class ConfigManager {
         }
     }
 
-    public static void configureCacheCleaner() {
-        String unit = ConfigManager.get("cache.expiration.unit", "MIN");
-        long duration = ConfigManager.getLong("cache.expiration.duration", 1800000);
+    // Taille en octets, avec suffixe k, m ou g accepté (ex. 512m)
+    public static long getSize(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim().toLowerCase();
+        long multiplier = 1;
+        if (value.endsWith("k")) {
+            multiplier = 1024;
+        } else if (value.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (value.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        try {
+            return Long.parseLong(value) * multiplier;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 
-        TimeUnit timeUnit;
+    /**
+     * Durée de fraîcheur par défaut (ms) des réponses sans Cache-Control, Expires ni Last-Modified.
+     * Avec l'unité SEC la durée est en secondes, sinon en millisecondes.
+     */
+    public static long getDefaultExpiration() {
+        String unit = get("cache.expiration.unit", "MIN");
+        long duration = getLong("cache.expiration.duration", 1800000);
         switch (unit.toUpperCase()) {
             case "SEC":
-                timeUnit = TimeUnit.SECONDS;
-                break;
+                return duration * 1000;
             case "MIN":
-                timeUnit = TimeUnit.MINUTES;
-                duration = duration / 60000;
-                break;
             case "HEURE":
-                timeUnit = TimeUnit.HOURS;
-                duration = duration / 3600000;
-                break;
+                return duration;
             default:
                 System.err.println("Unité inconnue pour cache.expiration.unit : " + unit + ". Utilisation de MINUTES par défaut.");
-                timeUnit = TimeUnit.MINUTES;
-                duration = duration / 60000;
+                return duration;
         }
+    }
 
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(() -> {
-            System.out.println("Nettoyage automatique du cache terminé.");
-            CacheManager.clearCache();
-        }, duration, duration, timeUnit);
+    // Les entrées expirées sont retirées au fil de l'eau, à chaque tick de la roue d'expiration
+    public static void configureCacheCleaner() {
+        long tick = getLong("cache.expiration.tick", 1000);
+        cacheCleaner = Executors.newScheduledThreadPool(1, runnable -> {
+            Thread thread = new Thread(runnable, "cache-expiration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cacheCleaner.scheduleAtFixedRate(CacheManager::expireEntries, tick, tick, TimeUnit.MILLISECONDS);
+        // Point de reprise périodique des métadonnées, pour un redémarrage à chaud même après un arrêt brutal
+        long checkpointInterval = getLong("cache.checkpoint.interval", 300000);
+        cacheCleaner.scheduleWithFixedDelay(CacheManager::checkpoint, checkpointInterval, checkpointInterval,
+                TimeUnit.MILLISECONDS);
+        // Actualisation anticipée des entrées les plus demandées, avant leur expiration
+        long refreshInterval = getLong("cache.refresh.interval", 5000);
+        cacheCleaner.scheduleWithFixedDelay(CacheRefresher::refreshHotEntries, refreshInterval, refreshInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public static void shutdownCacheCleaner() {
+        if (cacheCleaner != null) {
+            cacheCleaner.shutdownNow();
+        }
     }
 
 }
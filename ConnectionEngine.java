@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Moteur d'acceptation des connexions clientes, choisi par proxy.engine
+public abstract class ConnectionEngine {
+    protected final int maxConnections;
+    protected final Semaphore permits;
+    protected final Set<Socket> activeSockets = ConcurrentHashMap.newKeySet();
+    protected volatile boolean running;
+
+    protected ConnectionEngine(int maxConnections) {
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+    }
+
+    public static ConnectionEngine create(String name, int maxConnections) {
+        switch (name.toLowerCase()) {
+            case "thread":
+                return new ThreadConnectionEngine(maxConnections, false);
+            case "virtual":
+                return new ThreadConnectionEngine(maxConnections, true);
+            case "nio":
+                return new NioConnectionEngine(maxConnections);
+            default:
+                System.err.println("Moteur inconnu pour proxy.engine : " + name + ". Utilisation de virtual par défaut.");
+                return new ThreadConnectionEngine(maxConnections, true);
+        }
+    }
+
+    // Ouvre la socket d'écoute
+    public abstract void bind(String ipAddress, int port, int backlog) throws IOException;
+
+    // Boucle d'acceptation, bloque jusqu'à l'appel de shutdown()
+    public abstract void serve() throws IOException;
+
+    // Ferme la socket d'écoute, puis attend les connexions en cours avant de les couper
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        closeListener();
+
+        ExecutorService executor = executor();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                Log.warn("Délai d'arrêt dépassé, fermeture de " + activeSockets.size() + " connexion(s)");
+                for (Socket socket : activeSockets) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {}
+                }
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int activeConnections() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    protected abstract void closeListener();
+
+    protected abstract ExecutorService executor();
+
+    // Traite une connexion acceptée puis libère sa place, sauf si elle est mise en attente par le moteur
+    protected void handle(Socket clientSocket) {
+        activeSockets.add(clientSocket);
+        boolean parked = false;
+        try {
+            ClientHandler handler = new ClientHandler(clientSocket, canPark());
+            handler.run();
+            parked = handler.isParked() && park(clientSocket);
+        } finally {
+            activeSockets.remove(clientSocket);
+            if (!parked) {
+                release();
+            }
+        }
+    }
+
+    // Vrai si le moteur sait surveiller une connexion inactive sans lui dédier de thread
+    protected boolean canPark() {
+        return false;
+    }
+
+    // Reprend une connexion keep-alive inactive ; faux si elle a dû être fermée
+    protected boolean park(Socket clientSocket) {
+        return false;
+    }
+
+    protected void release() {
+        permits.release();
+    }
+
+    // Exécuteur à un thread virtuel par tâche si la JVM le permet (Java 21+)
+    protected static ExecutorService newVirtualExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    protected static ThreadFactory namedFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Politique du cache disque, bornée en octets. Les entrées arrivent dans un segment de probation
+ * et passent dans le segment protégé (80 % de la capacité) dès qu'elles sont redemandées ; l'éviction
+ * prend d'abord les plus anciennes de la probation. Quand la place manque, une nouvelle réponse n'est
+ * admise que si elle est plus demandée, d'après le FrequencySketch, que chacune des entrées qu'elle
+ * évincerait : un objet vu une seule fois ne chasse pas des objets réutilisés.
+ *
+ * Les accès ne prennent pas le verrou de la politique : ils sont déposés dans une file sans verrou,
+ * reportée dans le sketch et les segments à la prochaine admission ou éviction, ou par le nettoyeur
+ * (drainAccesses). File pleine, l'accès est abandonné : l'estimation de fréquence n'en souffre pas.
+ */
+public class DiskCachePolicy {
+    private static final int MAX_BUFFERED_ACCESSES = 64 * 1024;
+
+    private final long capacity;
+    private final long protectedCapacity;
+    private final FrequencySketch sketch;
+    private final boolean frequencyAdmission;
+    // Ordre d'accès : la première entrée est la moins récemment utilisée
+    private final LinkedHashMap<String, Long> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    private long admitted;
+    private long rejected;
+    private long evicted;
+    // Accès pas encore reportés, déposés par les requêtes
+    private final Queue<String> accessBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedAccesses = new AtomicInteger();
+
+    // frequencyAdmission à faux : tout est admis, seule l'éviction segmentée s'applique (pour comparer)
+    public DiskCachePolicy(long capacity, long expectedEntries, boolean frequencyAdmission) {
+        this.capacity = capacity;
+        this.protectedCapacity = capacity * 8 / 10;
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.frequencyAdmission = frequencyAdmission;
+    }
+
+    // À chaque requête, en cache ou non, sans bloquer : l'accès est reporté plus tard par drainAccesses()
+    public void recordAccess(String key) {
+        if (bufferedAccesses.incrementAndGet() <= MAX_BUFFERED_ACCESSES) {
+            accessBuffer.offer(key);
+        } else {
+            bufferedAccesses.decrementAndGet();
+        }
+    }
+
+    // Reporte les accès déposés : alimente l'estimation de fréquence et promeut les entrées redemandées
+    public synchronized void drainAccesses() {
+        String key;
+        while ((key = accessBuffer.poll()) != null) {
+            bufferedAccesses.decrementAndGet();
+            applyAccess(key);
+        }
+    }
+
+    private void applyAccess(String key) {
+        sketch.increment(key);
+        Long size = probation.remove(key);
+        if (size != null) {
+            probationBytes -= size;
+            protectedSegment.put(key, size);
+            protectedBytes += size;
+            // Le segment protégé trop plein rend ses entrées les plus anciennes à la probation
+            Iterator<Map.Entry<String, Long>> oldest = protectedSegment.entrySet().iterator();
+            while (protectedBytes > protectedCapacity && oldest.hasNext()) {
+                Map.Entry<String, Long> demoted = oldest.next();
+                oldest.remove();
+                protectedBytes -= demoted.getValue();
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue();
+            }
+        } else {
+            // Simple mise à jour de l'ordre d'accès
+            protectedSegment.get(key);
+        }
+    }
+
+    /**
+     * Décide de stocker key (size octets). Renvoie les clés à évincer pour lui faire de la place,
+     * éventuellement vide, ou null si la réponse n'est pas admise.
+     */
+    public synchronized List<String> admit(String key, long size) {
+        drainAccesses();
+        remove(key);
+        List<String> victims = new ArrayList<>();
+        long needed = probationBytes + protectedBytes + size - capacity;
+        if (needed > 0) {
+            if (size > capacity) {
+                rejected++;
+                return null;
+            }
+            int candidateFrequency = sketch.frequency(key);
+            long freed = 0;
+            for (LinkedHashMap<String, Long> segment : List.of(probation, protectedSegment)) {
+                for (Map.Entry<String, Long> victim : segment.entrySet()) {
+                    if (freed >= needed) {
+                        break;
+                    }
+                    if (frequencyAdmission && sketch.frequency(victim.getKey()) >= candidateFrequency) {
+                        rejected++;
+                        return null;
+                    }
+                    victims.add(victim.getKey());
+                    freed += victim.getValue();
+                }
+            }
+            for (String victim : victims) {
+                remove(victim);
+            }
+            evicted += victims.size();
+        }
+        probation.put(key, size);
+        probationBytes += size;
+        admitted++;
+        return victims;
+    }
+
+    /**
+     * Entrée déjà présente sur disque au démarrage : ajoutée sans contrôle d'admission, avec sa
+     * fréquence et son segment d'avant l'arrêt si un point de reprise les a conservés.
+     */
+    public synchronized void add(String key, long size, int frequency, boolean hot) {
+        remove(key);
+        for (int i = 0; i < frequency; i++) {
+            sketch.increment(key);
+        }
+        if (hot) {
+            protectedSegment.put(key, size);
+            protectedBytes += size;
+        } else {
+            probation.put(key, size);
+            probationBytes += size;
+        }
+    }
+
+    // Copies des segments, de l'entrée la moins récente à la plus récente, sans toucher à l'ordre d'accès
+    public synchronized Map<String, Long> protectedEntries() {
+        drainAccesses();
+        return new LinkedHashMap<>(protectedSegment);
+    }
+
+    public synchronized Map<String, Long> probationEntries() {
+        return new LinkedHashMap<>(probation);
+    }
+
+    public synchronized int frequency(String key) {
+        return sketch.frequency(key);
+    }
+
+    // Entrées à évincer si la capacité est dépassée (ex. capacité réduite depuis le dernier démarrage)
+    public synchronized List<String> overflow() {
+        drainAccesses();
+        List<String> victims = new ArrayList<>();
+        for (LinkedHashMap<String, Long> segment : List.of(probation, protectedSegment)) {
+            Iterator<Map.Entry<String, Long>> oldest = segment.entrySet().iterator();
+            while (probationBytes + protectedBytes > capacity && oldest.hasNext()) {
+                Map.Entry<String, Long> victim = oldest.next();
+                oldest.remove();
+                if (segment == probation) {
+                    probationBytes -= victim.getValue();
+                } else {
+                    protectedBytes -= victim.getValue();
+                }
+                victims.add(victim.getKey());
+            }
+        }
+        evicted += victims.size();
+        return victims;
+    }
+
+    public synchronized boolean contains(String key) {
+        return probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    public synchronized void remove(String key) {
+        Long size = probation.remove(key);
+        if (size != null) {
+            probationBytes -= size;
+        }
+        size = protectedSegment.remove(key);
+        if (size != null) {
+            protectedBytes -= size;
+        }
+    }
+
+    public synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    public synchronized long getUsedBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return admitted;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Roue temporelle hachée : chaque échéance est rangée dans la case de son tick, et chaque avancée
+ * de la roue n'examine que les cases écoulées depuis la précédente. Les expirations sont ainsi
+ * traitées au fil de l'eau, sans parcourir tout le cache.
+ */
+public class ExpiryWheel {
+    private final long tickMillis;
+    private final Queue<Timer>[] slots;
+    private long currentTick = -1;
+
+    private static class Timer {
+        final String key;
+        final long deadline;
+
+        Timer(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpiryWheel(long tickMillis, int slotCount) {
+        this.tickMillis = tickMillis;
+        this.slots = new Queue[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    // Programme key pour deadline ; une échéance déjà passée tombe au prochain tick
+    public void schedule(String key, long deadline) {
+        // Arrondi au tick supérieur : la case n'est examinée qu'une fois l'échéance atteinte
+        long tick = (deadline + tickMillis - 1) / tickMillis;
+        synchronized (this) {
+            if (currentTick >= 0 && tick <= currentTick) {
+                tick = currentTick + 1;
+            }
+        }
+        slots[(int) (tick % slots.length)].add(new Timer(key, deadline));
+    }
+
+    // Avance la roue jusqu'à now et renvoie les clés arrivées à échéance
+    public synchronized List<String> advance(long now) {
+        List<String> due = new ArrayList<>();
+        long target = now / tickMillis;
+        if (currentTick < 0 || target - currentTick > slots.length) {
+            // Premier passage, ou retard d'un tour complet : toutes les cases sont à examiner
+            currentTick = target - slots.length;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            Queue<Timer> slot = slots[(int) (currentTick % slots.length)];
+            // Les échéances des tours suivants restent dans la case
+            for (int remaining = slot.size(); remaining > 0; remaining--) {
+                Timer timer = slot.poll();
+                if (timer == null) {
+                    break;
+                }
+                if (timer.deadline <= now) {
+                    due.add(timer.key);
+                } else {
+                    slot.add(timer);
+                }
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Clés programmées pour une échéance dans ]from, to], sans les retirer. Seules les cases des ticks
+     * de l'intervalle sont examinées, toutes s'il couvre un tour complet. Une clé reprogrammée peut
+     * figurer plusieurs fois, et une échéance déplacée par une avancée concurrente peut manquer.
+     */
+    public List<String> scheduledBetween(long from, long to) {
+        List<String> keys = new ArrayList<>();
+        long firstTick = from / tickMillis;
+        long lastTick = Math.min((to + tickMillis - 1) / tickMillis, firstTick + slots.length - 1);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            for (Timer timer : slots[(int) (tick % slots.length)]) {
+                if (timer.deadline > from && timer.deadline <= to) {
+                    keys.add(timer.key);
+                }
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Estimation compacte de la fréquence d'accès récente des clés (count-min sketch à compteurs de
+ * 4 bits). Quand le nombre d'accès enregistrés atteint sampleSize, tous les compteurs sont divisés
+ * par deux : les clés populaires autrefois mais délaissées perdent progressivement leur avantage.
+ * Non synchronisé : utilisé seulement sous le verrou de DiskCachePolicy.
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    // 16 compteurs de 4 bits par long
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    public FrequencySketch(long expectedKeys) {
+        int size = Integer.highestOneBit((int) Math.max(16, Math.min(expectedKeys, 1 << 24)) - 1) << 1;
+        this.table = new long[Math.max(1, size / 4)];
+        this.sampleSize = 10 * size;
+    }
+
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i), offsetOf(hash, i));
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    // Estimation entre 0 et 15 : le minimum des compteurs de la clé
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long word = table[indexOf(hash, i)];
+            frequency = Math.min(frequency, (int) ((word >>> offsetOf(hash, i)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) ((h & 0x7fffffffL) % table.length);
+    }
+
+    // Chaque ligne utilise un des 16 compteurs du mot, choisi par une autre partie du hash
+    private static int offsetOf(int hash, int row) {
+        return (((hash >>> (row * 8)) & 3) << 2 | row) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
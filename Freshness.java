@@ -0,0 +1,158 @@
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Durée de fraîcheur d'une réponse, calculée à partir de ses en-têtes : Cache-Control (s-maxage,
+ * max-age, no-cache), sinon Expires, sinon une heuristique sur Last-Modified, sinon la durée par
+ * défaut configurée. Aussi le délai de grâce pendant lequel une réponse expirée reste servie.
+ */
+public final class Freshness {
+    // Heuristique usuelle : 10 % de l'âge du document, plafonnée à une journée
+    private static final long HEURISTIC_MAX = 24L * 3600 * 1000;
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private Freshness() {
+    }
+
+    /**
+     * Statuts qu'un cache peut garder sans indication explicite de l'origine (RFC 9110, 15.1), et
+     * 206 pour les entrées partielles. Une erreur 5xx ne remplace jamais une entrée.
+     */
+    private static final Set<Integer> CACHEABLE_STATUSES = Set.of(200, 203, 204, 206, 300, 301, 308, 404, 410);
+
+    // Les réponses marquées no-store ou private, ou d'un statut non cacheable, ne sont pas gardées par un cache partagé
+    public static boolean isStorable(HttpResponseHead head) {
+        if (!CACHEABLE_STATUSES.contains(head.getStatusCode())) {
+            return false;
+        }
+        if (head.hasToken("Cache-Control", "no-store") || head.hasToken("Cache-Control", "private")) {
+            return false;
+        }
+        // Une seule copie par URL : la réponse ne doit pas dépendre des en-têtes de la requête,
+        // sauf d'Accept-Encoding que le proxy retire des requêtes mises en cache
+        String vary = head.get("Vary");
+        if (vary != null) {
+            for (String field : vary.split(",")) {
+                if (!field.isBlank() && !field.trim().equalsIgnoreCase("Accept-Encoding")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Vrai si la réponse peut être revalidée par une requête conditionnelle
+    public static boolean hasValidators(HttpResponseHead head) {
+        return head.get("ETag") != null || head.get("Last-Modified") != null;
+    }
+
+    // Instant (en ms) à partir duquel la réponse reçue à responseTime doit être revalidée
+    public static long expiresAt(HttpResponseHead head, long responseTime, long defaultTtl) {
+        if (head.hasToken("Cache-Control", "no-cache")) {
+            return responseTime;
+        }
+        long age = Math.max(0, seconds(head.get("Age"))) * 1000;
+
+        long maxAge = directive(head, "s-maxage");
+        if (maxAge < 0) {
+            maxAge = directive(head, "max-age");
+        }
+        if (maxAge >= 0) {
+            return responseTime + maxAge * 1000 - age;
+        }
+
+        long date = parseDate(head.get("Date"));
+        if (date < 0) {
+            date = responseTime;
+        }
+        String expires = head.get("Expires");
+        if (expires != null) {
+            // Une date invalide (ex. "0") signifie déjà expirée
+            long expiresDate = parseDate(expires);
+            return expiresDate < 0 ? responseTime : responseTime + (expiresDate - date) - age;
+        }
+
+        long lastModified = parseDate(head.get("Last-Modified"));
+        if (lastModified >= 0 && lastModified < date) {
+            return responseTime + Math.min((date - lastModified) / 10, HEURISTIC_MAX) - age;
+        }
+        return responseTime + defaultTtl;
+    }
+
+    /**
+     * Âge en secondes de la réponse stockée, pour l'en-tête Age des succès de cache (RFC 9111,
+     * 4.2.3) : son Age à la réception, plus le temps écoulé depuis sa Date.
+     */
+    public static long currentAge(HttpResponseHead head, long now) {
+        long age = Math.max(0, seconds(head.get("Age")));
+        long date = parseDate(head.get("Date"));
+        return date < 0 ? age : age + Math.max(0, now - date) / 1000;
+    }
+
+    /**
+     * Durée (ms) après l'expiration pendant laquelle la réponse peut encore être servie, le temps
+     * de la revalider en arrière-plan : directive stale-while-revalidate, sinon defaultGrace. Nulle
+     * si l'origine exige une revalidation (no-cache, must-revalidate, proxy-revalidate, s-maxage).
+     */
+    public static long staleWhileRevalidate(HttpResponseHead head, long defaultGrace) {
+        if (head.hasToken("Cache-Control", "no-cache") || head.hasToken("Cache-Control", "must-revalidate")
+                || head.hasToken("Cache-Control", "proxy-revalidate")) {
+            return 0;
+        }
+        long grace = directive(head, "stale-while-revalidate");
+        if (grace >= 0) {
+            return grace * 1000;
+        }
+        // s-maxage implique proxy-revalidate pour un cache partagé (RFC 9111, 5.2.2.10)
+        return directive(head, "s-maxage") >= 0 ? 0 : defaultGrace;
+    }
+
+    // Valeur d'une directive Cache-Control en secondes, -1 si absente
+    private static long directive(HttpResponseHead head, String name) {
+        String value = head.get("Cache-Control");
+        if (value == null) {
+            return -1;
+        }
+        for (String part : value.split(",")) {
+            String[] pair = part.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equalsIgnoreCase(name)) {
+                return seconds(pair[1].trim().replace("\"", ""));
+            }
+        }
+        return -1;
+    }
+
+    private static long seconds(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Date HTTP (IMF-fixdate) de l'instant donné en ms
+    public static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    // Date HTTP (RFC 1123) en ms, -1 si absente ou invalide
+    static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
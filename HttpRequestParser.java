@@ -0,0 +1,541 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Analyse des requêtes HTTP/1.1 d'une connexion cliente, directement sur les octets reçus. L'en-tête
+ * reste dans le tampon de la connexion (pris dans BufferPool) et n'est décrit que par des positions :
+ * seules les valeurs demandées explicitement (cible, en-tête) deviennent des chaînes. Les requêtes
+ * pipelinées déjà reçues restent dans le tampon pour l'appel suivant de next().
+ */
+public class HttpRequestParser {
+    private static final int MAX_HEADERS = 128;
+    // 16 chiffres hexadécimaux suffisent à toute taille de bloc représentable par un long
+    private static final int MAX_CHUNK_SIZE_DIGITS = 16;
+    // Place gardée après l'en-tête pour lire le corps sans écraser l'en-tête
+    private static final int BODY_ROOM = 1024;
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "TRACE", "CONNECT"};
+    // Marque une requête relayée par un autre nœud du cluster : elle est servie ici, sans nouveau relais
+    public static final String PEER_HEADER = "X-Proxy-Peer";
+    // En-têtes propres à une connexion, jamais retransmis à l'origine
+    private static final String[] HOP_BY_HOP = {"Connection", "Keep-Alive", "Proxy-Connection", "Proxy-Authorization",
+            "TE", "Trailer", "Upgrade", "Host", "Expect", PEER_HEADER};
+    // Retirés des requêtes servies par le cache : la réponse stockée doit être complète et non encodée
+    private static final String[] CACHE_CONTROLLED = {"If-None-Match", "If-Modified-Since", "If-Match",
+            "If-Unmodified-Since", "If-Range", "Range", "Accept-Encoding"};
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    private int headEnd;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    // Pour chaque en-tête : début et fin du nom, début et fin de la valeur
+    private final int[] headers = new int[MAX_HEADERS * 4];
+    private int headerCount;
+    private long contentLength;
+    private boolean chunked;
+
+    public HttpRequestParser(InputStream in, byte[] buffer) {
+        this.in = in;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Lit l'en-tête de la requête suivante ; faux si le client a fermé la connexion entre deux
+     * requêtes. Le corps de la requête précédente doit avoir été lu (transferBody ou skipBody).
+     */
+    public boolean next() throws IOException {
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        int scanned = 0;
+        while (true) {
+            // Lignes vides tolérées entre deux requêtes
+            int skip = 0;
+            while (skip < limit && (buffer[skip] == '\r' || buffer[skip] == '\n')) {
+                skip++;
+            }
+            if (skip > 0) {
+                System.arraycopy(buffer, skip, buffer, 0, limit - skip);
+                limit -= skip;
+                scanned = 0;
+            }
+            int end = indexOfHeadEnd(scanned);
+            if (end >= 0) {
+                if (end > buffer.length - BODY_ROOM) {
+                    throw new ProtocolException("En-tête de requête trop long");
+                }
+                headEnd = end;
+                break;
+            }
+            scanned = Math.max(0, limit - 3);
+            if (limit == buffer.length) {
+                throw new ProtocolException("En-tête de requête trop long");
+            }
+            int bytesRead = in.read(buffer, limit, buffer.length - limit);
+            if (bytesRead < 0) {
+                if (limit == 0) {
+                    return false;
+                }
+                throw new EOFException("Requête incomplète");
+            }
+            limit += bytesRead;
+        }
+        parseRequestLine();
+        parseHeaders();
+        pos = headEnd;
+        return true;
+    }
+
+    // Vrai si des octets d'une requête suivante sont déjà dans le tampon
+    public boolean hasBuffered() {
+        return pos < limit;
+    }
+
+    private int indexOfHeadEnd(int from) {
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+            if (i + 1 < limit && buffer[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < limit && buffer[i + 1] == '\r' && buffer[i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private void parseRequestLine() throws ProtocolException {
+        int lineEnd = lineEnd(0);
+        methodEnd = indexOf(' ', 0, lineEnd);
+        targetStart = methodEnd + 1;
+        targetEnd = methodEnd < 0 ? -1 : indexOf(' ', targetStart, lineEnd);
+        if (methodEnd <= 0 || targetEnd <= targetStart) {
+            throw new ProtocolException("Ligne de requête invalide");
+        }
+        versionStart = targetEnd + 1;
+        versionEnd = lineEnd;
+        if (!regionEquals(versionStart, versionEnd, "HTTP/1.1") && !regionEquals(versionStart, versionEnd, "HTTP/1.0")) {
+            throw new ProtocolException("Version HTTP non prise en charge");
+        }
+    }
+
+    private void parseHeaders() throws ProtocolException {
+        headerCount = 0;
+        int lineStart = indexOf('\n', 0, headEnd) + 1;
+        while (lineStart < headEnd) {
+            int end = lineEnd(lineStart);
+            if (end == lineStart) {
+                break;
+            }
+            int colon = indexOf(':', lineStart, end);
+            // Pas de nom, espace avant les deux-points ou ligne repliée : refusés (RFC 9112)
+            if (colon <= lineStart || isWhitespace(buffer[colon - 1]) || isWhitespace(buffer[lineStart])) {
+                throw new ProtocolException("En-tête de requête invalide");
+            }
+            if (headerCount == MAX_HEADERS) {
+                throw new ProtocolException("Trop d'en-têtes dans la requête");
+            }
+            int valueStart = colon + 1;
+            int valueEnd = end;
+            while (valueStart < valueEnd && isWhitespace(buffer[valueStart])) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1])) {
+                valueEnd--;
+            }
+            int slot = headerCount++ * 4;
+            headers[slot] = lineStart;
+            headers[slot + 1] = colon;
+            headers[slot + 2] = valueStart;
+            headers[slot + 3] = valueEnd;
+            int newline = indexOf('\n', end, headEnd);
+            if (newline < 0) {
+                break;
+            }
+            lineStart = newline + 1;
+        }
+
+        chunked = hasToken("Transfer-Encoding", "chunked");
+        contentLength = parseContentLength();
+        if (chunked && contentLength >= 0) {
+            // Deux délimitations contradictoires : porte ouverte au découpage de requêtes
+            throw new ProtocolException("Transfer-Encoding et Content-Length dans la même requête");
+        }
+        if (!chunked && indexOfHeader("Transfer-Encoding", 0) >= 0) {
+            throw new ProtocolException("Transfer-Encoding non pris en charge");
+        }
+    }
+
+    private long parseContentLength() throws ProtocolException {
+        long length = -1;
+        for (int i = indexOfHeader("Content-Length", 0); i >= 0; i = indexOfHeader("Content-Length", i + 1)) {
+            int slot = i * 4;
+            if (headers[slot + 2] == headers[slot + 3]) {
+                throw new ProtocolException("Content-Length invalide");
+            }
+            long value = 0;
+            for (int p = headers[slot + 2]; p < headers[slot + 3]; p++) {
+                byte b = buffer[p];
+                if (b < '0' || b > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                    throw new ProtocolException("Content-Length invalide");
+                }
+                value = value * 10 + (b - '0');
+            }
+            if (length >= 0 && length != value) {
+                throw new ProtocolException("Content-Length multiples et différents");
+            }
+            length = value;
+        }
+        return length;
+    }
+
+    // Méthode de la requête ; les méthodes usuelles sont rendues sans nouvelle chaîne
+    public String getMethod() {
+        for (String method : METHODS) {
+            if (regionEquals(0, methodEnd, method)) {
+                return method;
+            }
+        }
+        return new String(buffer, 0, methodEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    public boolean isMethod(String method) {
+        return regionEquals(0, methodEnd, method);
+    }
+
+    public String getTarget() {
+        return new String(buffer, targetStart, targetEnd - targetStart, StandardCharsets.ISO_8859_1);
+    }
+
+    public boolean isHttp11() {
+        return regionEquals(versionStart, versionEnd, "HTTP/1.1");
+    }
+
+    // HTTP/1.1 : persistante par défaut ; HTTP/1.0 : seulement sur demande explicite
+    public boolean isKeepAlive() {
+        if (hasToken("Connection", "close")) {
+            return false;
+        }
+        return isHttp11() || hasToken("Connection", "keep-alive");
+    }
+
+    public String getHeader(String name) {
+        int i = indexOfHeader(name, 0);
+        if (i < 0) {
+            return null;
+        }
+        int slot = i * 4;
+        return new String(buffer, headers[slot + 2], headers[slot + 3] - headers[slot + 2], StandardCharsets.ISO_8859_1);
+    }
+
+    public boolean hasHeader(String name) {
+        return indexOfHeader(name, 0) >= 0;
+    }
+
+    // Vrai si un des en-têtes name contient le jeton donné, sans distinction de casse
+    public boolean hasToken(String name, String token) {
+        for (int i = indexOfHeader(name, 0); i >= 0; i = indexOfHeader(name, i + 1)) {
+            int slot = i * 4;
+            int start = headers[slot + 2];
+            int end = headers[slot + 3];
+            while (start < end) {
+                int comma = indexOf(',', start, end);
+                int tokenEnd = comma < 0 ? end : comma;
+                int a = start;
+                int b = tokenEnd;
+                while (a < b && isWhitespace(buffer[a])) {
+                    a++;
+                }
+                while (b > a && isWhitespace(buffer[b - 1])) {
+                    b--;
+                }
+                if (regionEqualsIgnoreCase(a, b, token)) {
+                    return true;
+                }
+                start = tokenEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    // -1 si la requête n'a pas de Content-Length
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    // Une requête sans Content-Length ni codage chunked n'a pas de corps
+    public boolean hasBody() {
+        return chunked || contentLength > 0;
+    }
+
+    /**
+     * Écrit les en-têtes de bout en bout, tels que reçus, pour la requête vers l'origine. Les
+     * en-têtes de connexion (et ceux que Connection désigne) ne sont pas repris ; forCache retire
+     * en plus ceux qui rendraient la réponse partielle, conditionnelle ou encodée.
+     */
+    public void writeHeaders(OutputStream out, boolean forCache) throws IOException {
+        for (int i = 0; i < headerCount; i++) {
+            int slot = i * 4;
+            int nameStart = headers[slot];
+            int nameEnd = headers[slot + 1];
+            if (matchesAny(nameStart, nameEnd, HOP_BY_HOP) || (forCache && matchesAny(nameStart, nameEnd, CACHE_CONTROLLED))
+                    || isListedInConnection(nameStart, nameEnd)) {
+                continue;
+            }
+            out.write(buffer, nameStart, lineEnd(nameStart) - nameStart);
+            out.write('\r');
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Recopie le corps de la requête tel que reçu (codage chunked compris) au fil de l'eau. Les
+     * octets déjà lus avec l'en-tête sont repris du tampon avant de lire la socket.
+     */
+    public void transferBody(OutputStream out) throws IOException {
+        if (chunked) {
+            copyChunked(out);
+        } else if (contentLength > 0) {
+            copyExactly(out, contentLength);
+        }
+    }
+
+    public void skipBody() throws IOException {
+        transferBody(OutputStream.nullOutputStream());
+    }
+
+    private void copyChunked(OutputStream out) throws IOException {
+        while (true) {
+            int lineEnd = readLine();
+            long size = lineEnd - pos >= 2 && buffer[lineEnd - 2] == '\r'
+                    ? parseChunkSize(buffer, pos, lineEnd - 2) : -1;
+            if (size < 0) {
+                throw new ProtocolException("Taille de bloc chunked invalide");
+            }
+            out.write(buffer, pos, lineEnd - pos);
+            pos = lineEnd;
+            if (size == 0) {
+                // Trailers éventuels jusqu'à la ligne vide finale
+                int trailerEnd;
+                do {
+                    trailerEnd = readLine();
+                    boolean empty = trailerEnd - pos <= 2;
+                    out.write(buffer, pos, trailerEnd - pos);
+                    pos = trailerEnd;
+                    if (empty) {
+                        return;
+                    }
+                } while (true);
+            }
+            copyExactly(out, size);
+            int end = readLine();
+            if (end - pos > 2) {
+                throw new ProtocolException("Fin de bloc chunked invalide");
+            }
+            out.write(buffer, pos, end - pos);
+            pos = end;
+        }
+    }
+
+    /**
+     * Taille portée par une ligne de bloc chunked, sans sa fin de ligne ; -1 si elle est invalide.
+     * Seuls des chiffres hexadécimaux sont admis, sans signe ni blanc entre eux, suivis d'éventuels
+     * blancs avant une extension ';' ou la fin de la ligne : "1 2" n'est pas lu 0x12. Partagée avec
+     * UpstreamConnection, pour que client et origine soient découpés de la même façon.
+     */
+    static long parseChunkSize(byte[] line, int start, int end) {
+        long size = 0;
+        int p = start;
+        for (int digit; p < end && (digit = hexDigit(line[p])) >= 0; p++) {
+            if (p - start == MAX_CHUNK_SIZE_DIGITS || size > (Long.MAX_VALUE >> 4)) {
+                return -1;
+            }
+            size = (size << 4) | digit;
+        }
+        if (p == start) {
+            return -1;
+        }
+        while (p < end && isWhitespace(line[p])) {
+            p++;
+        }
+        return p == end || line[p] == ';' ? size : -1;
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private void copyExactly(OutputStream out, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            if (pos == limit) {
+                fill();
+            }
+            int count = (int) Math.min(remaining, limit - pos);
+            out.write(buffer, pos, count);
+            pos += count;
+            remaining -= count;
+        }
+    }
+
+    // S'assure qu'une ligne complète commence à pos ; renvoie la position qui suit son '\n'
+    private int readLine() throws IOException {
+        int from = pos;
+        while (true) {
+            int newline = indexOf('\n', from, limit);
+            if (newline >= 0) {
+                return newline + 1;
+            }
+            if (pos > headEnd) {
+                // Ligne à cheval : ramenée au début de la zone du corps
+                System.arraycopy(buffer, pos, buffer, headEnd, limit - pos);
+                limit -= pos - headEnd;
+                pos = headEnd;
+            }
+            if (limit == buffer.length) {
+                throw new ProtocolException("Ligne de bloc chunked trop longue");
+            }
+            from = limit;
+            int bytesRead = in.read(buffer, limit, buffer.length - limit);
+            if (bytesRead < 0) {
+                throw new EOFException("Corps de requête tronqué");
+            }
+            limit += bytesRead;
+        }
+    }
+
+    // Lit la suite du corps après l'en-tête, sans écraser celui-ci
+    private void fill() throws IOException {
+        pos = headEnd;
+        limit = headEnd;
+        int bytesRead = in.read(buffer, limit, buffer.length - limit);
+        if (bytesRead < 0) {
+            throw new EOFException("Corps de requête tronqué");
+        }
+        limit += bytesRead;
+    }
+
+    private boolean isListedInConnection(int nameStart, int nameEnd) {
+        for (int i = indexOfHeader("Connection", 0); i >= 0; i = indexOfHeader("Connection", i + 1)) {
+            int slot = i * 4;
+            int start = headers[slot + 2];
+            int end = headers[slot + 3];
+            while (start < end) {
+                int comma = indexOf(',', start, end);
+                int tokenEnd = comma < 0 ? end : comma;
+                int a = start;
+                int b = tokenEnd;
+                while (a < b && isWhitespace(buffer[a])) {
+                    a++;
+                }
+                while (b > a && isWhitespace(buffer[b - 1])) {
+                    b--;
+                }
+                if (b - a == nameEnd - nameStart && regionsEqualIgnoreCase(a, nameStart, b - a)) {
+                    return true;
+                }
+                start = tokenEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAny(int start, int end, String[] names) {
+        for (String name : names) {
+            if (regionEqualsIgnoreCase(start, end, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOfHeader(String name, int from) {
+        for (int i = from; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(headers[i * 4], headers[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Fin de la ligne commençant à start, sans CR ni LF
+    private int lineEnd(int start) {
+        int newline = indexOf('\n', start, headEnd);
+        int end = newline < 0 ? headEnd : newline;
+        return end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (toLower(buffer[start + i]) != toLower((byte) value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionsEqualIgnoreCase(int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (toLower(buffer[a + i]) != toLower(buffer[b + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Ligne de statut et en-têtes d'une réponse HTTP, lus depuis un flux ou depuis une réponse en cache
+public class HttpResponseHead {
+    // Limites d'une réponse d'origine, comme celles des requêtes des clients ; l'en-tête complet doit
+    // aussi tenir dans ce que FileResponse lit pour le retrouver au début d'une entrée en cache
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+    private static final int MAX_HEAD_LENGTH = 64 * 1024;
+    // En-têtes d'une 304 qui ne remplacent pas ceux de la réponse stockée : propres à la connexion ou au corps stocké
+    private static final Set<String> NOT_UPDATED = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "te", "trailer", "upgrade", "proxy-authenticate", "content-length",
+            "content-encoding", "content-range");
+
+    private String statusLine;
+    private int statusCode;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+    private int length;
+
+    private HttpResponseHead() {
+    }
+
+    // Lit l'en-tête depuis le flux ; null si le flux est fermé avant la ligne de statut
+    public static HttpResponseHead read(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return null;
+        }
+        HttpResponseHead head = new HttpResponseHead();
+        head.setStatusLine(statusLine);
+        int headLength = statusLine.length() + 2;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headLength += line.length() + 2;
+            if (headLength > MAX_HEAD_LENGTH) {
+                throw new IOException("En-tête de réponse trop long");
+            }
+            head.addLine(line);
+        }
+        if (line == null) {
+            throw new EOFException("En-têtes de réponse incomplets");
+        }
+        return head;
+    }
+
+    // Analyse l'en-tête au début d'une réponse complète ; null s'il est absent ou tronqué
+    public static HttpResponseHead parse(byte[] data) {
+        int end = indexOfHeadEnd(data);
+        if (end < 0) {
+            return null;
+        }
+        String[] lines = new String(data, 0, end, StandardCharsets.ISO_8859_1).split("\r?\n");
+        HttpResponseHead head = new HttpResponseHead();
+        try {
+            head.setStatusLine(lines[0]);
+        } catch (IOException e) {
+            return null;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            if (!lines[i].isEmpty()) {
+                head.addLine(lines[i]);
+            }
+        }
+        head.length = end;
+        return head;
+    }
+
+    // Position du premier octet du corps, -1 si la fin des en-têtes n'est pas trouvée
+    static int indexOfHeadEnd(byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (i + 1 < data.length && data[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < data.length && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private void setStatusLine(String line) throws IOException {
+        String[] parts = line.split(" ", 3);
+        try {
+            statusCode = Integer.parseInt(parts[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException("Ligne de statut invalide : " + line);
+        }
+        statusLine = line;
+    }
+
+    private void addLine(String line) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        names.add(line.substring(0, colon).trim());
+        values.add(line.substring(colon + 1).trim());
+    }
+
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // Remplace la ligne de statut (ex. 206 pour une réponse partielle construite depuis le cache)
+    public void setStatus(int code, String reason) {
+        statusCode = code;
+        statusLine = "HTTP/1.1 " + code + " " + reason;
+    }
+
+    // Copie sans Transfer-Encoding chunked, pour le seul contenu délimité par sa taille ou la fermeture
+    public HttpResponseHead unframed() {
+        if (!isChunked()) {
+            return this;
+        }
+        HttpResponseHead unframed = parse(toBytes());
+        unframed.remove("Transfer-Encoding");
+        unframed.remove("Content-Length");
+        return unframed;
+    }
+
+    /**
+     * Réponse 304 reçue en revalidant cette réponse stockée : ses en-têtes remplacent ceux de même
+     * nom (RFC 9111, 3.2 et 4.3.4). Sans Age dans la 304, l'âge repart de sa Date.
+     */
+    public void update(HttpResponseHead notModified) {
+        for (String name : notModified.names) {
+            if (!NOT_UPDATED.contains(name.toLowerCase(Locale.ROOT))) {
+                remove(name);
+            }
+        }
+        for (int i = 0; i < notModified.names.size(); i++) {
+            if (!NOT_UPDATED.contains(notModified.names.get(i).toLowerCase(Locale.ROOT))) {
+                names.add(notModified.names.get(i));
+                values.add(notModified.values.get(i));
+            }
+        }
+        if (notModified.get("Age") == null) {
+            remove("Age");
+        }
+    }
+
+    public boolean isHttp11() {
+        return statusLine.startsWith("HTTP/1.1");
+    }
+
+    // Taille en octets de l'en-tête dans la réponse analysée par parse()
+    public int getLength() {
+        return length;
+    }
+
+    public String get(String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return values.get(i);
+            }
+        }
+        return null;
+    }
+
+    // Vrai si l'en-tête contient le jeton donné (ex. Connection: keep-alive, Upgrade)
+    public boolean hasToken(String name, String token) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                for (String part : values.get(i).split(",")) {
+                    if (part.trim().equalsIgnoreCase(token)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public void set(String name, String value) {
+        remove(name);
+        names.add(name);
+        values.add(value);
+    }
+
+    public void remove(String name) {
+        for (int i = names.size() - 1; i >= 0; i--) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                names.remove(i);
+                values.remove(i);
+            }
+        }
+    }
+
+    public long getContentLength() throws IOException {
+        String value = get("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Content-Length invalide : " + value);
+        }
+    }
+
+    public boolean isChunked() {
+        String value = get("Transfer-Encoding");
+        return value != null && value.toLowerCase().endsWith("chunked");
+    }
+
+    // Réponses 1xx intermédiaires (100 Continue...) qui précèdent la réponse finale
+    public boolean isInterim() {
+        return statusCode >= 100 && statusCode < 200 && statusCode != 101;
+    }
+
+    public boolean hasBody(String method) {
+        return !method.equalsIgnoreCase("HEAD") && !isInterim() && statusCode != 204 && statusCode != 304;
+    }
+
+    // La connexion d'origine reste ouverte après cette réponse
+    public boolean isKeepAlive() {
+        if (hasToken("Connection", "close")) {
+            return false;
+        }
+        return isHttp11() || hasToken("Connection", "keep-alive");
+    }
+
+    public byte[] toBytes() {
+        StringBuilder sb = new StringBuilder(statusLine).append("\r\n");
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(names.get(i)).append(": ").append(values.get(i)).append("\r\n");
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Lit une ligne terminée par CRLF (ou LF), sans le terminateur ; null en fin de flux
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length;
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (line.size() == MAX_LINE_LENGTH) {
+                throw new IOException("Ligne de réponse trop longue");
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.ISO_8859_1);
+    }
+}
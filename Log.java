@@ -0,0 +1,123 @@
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Journal asynchrone filtré par niveau (log.level : DEBUG, INFO, WARN, ERROR). Les threads des
+ * requêtes ne font que déposer le message dans une file bornée ; un thread dédié l'écrit sur la
+ * console. File pleine : le message est abandonné et compté, jamais attendu.
+ */
+public final class Log {
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+    private static final String[] NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+
+    private static final int LEVEL = parseLevel(ConfigManager.get("log.level", "INFO"));
+    private static final BlockingQueue<Message> queue =
+            new ArrayBlockingQueue<>(ConfigManager.getInt("log.queue", 8192));
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Thread writer;
+
+    private static class Message {
+        final int level;
+        final String text;
+        final Throwable error;
+
+        Message(int level, String text, Throwable error) {
+            this.level = level;
+            this.text = text;
+            this.error = error;
+        }
+    }
+
+    static {
+        writer = new Thread(Log::drain, "log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    // À tester avant de construire un message coûteux, sur les chemins parcourus à chaque requête
+    public static boolean isEnabled(int level) {
+        return level >= LEVEL;
+    }
+
+    public static void debug(String text) {
+        log(DEBUG, text, null);
+    }
+
+    public static void info(String text) {
+        log(INFO, text, null);
+    }
+
+    public static void warn(String text) {
+        log(WARN, text, null);
+    }
+
+    public static void error(String text) {
+        log(ERROR, text, null);
+    }
+
+    public static void error(String text, Throwable error) {
+        log(ERROR, text, error);
+    }
+
+    private static void log(int level, String text, Throwable error) {
+        if (level < LEVEL) {
+            return;
+        }
+        if (!queue.offer(new Message(level, text, error))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                write(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void write(Message message) {
+        PrintStream out = message.level >= WARN ? System.err : System.out;
+        out.println(message.level == INFO ? message.text : NAMES[message.level] + " " + message.text);
+        if (message.error != null) {
+            message.error.printStackTrace(out);
+        }
+    }
+
+    // Écrit les messages encore en file, à l'arrêt du serveur
+    public static void flush() {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static int parseLevel(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name.trim())) {
+                return i;
+            }
+        }
+        return INFO;
+    }
+}
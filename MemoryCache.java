@@ -0,0 +1,364 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Niveau mémoire du cache, budgété en octets. Les réponses sont rangées hors tas, dans les pages
+ * d'un SlabAllocator ; seul l'en-tête HTTP reste sur le tas. Les lectures ne prennent aucun verrou :
+ * elles horodatent l'entrée, incrémentent sa fréquence et comptent une référence, pour que les pages
+ * ne soient recyclées qu'une fois tous les envois terminés. Quand le budget est atteint, l'éviction
+ * libère de la place en tenant compte de la taille des entrées (LRU ou LFU par page occupée).
+ */
+public class MemoryCache {
+    private final SlabAllocator allocator;
+    private final boolean lfu;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public class Entry extends CachedResponse {
+        private final ByteBuffer[] pages;
+        private final long size;
+        private final byte[] head;
+        private final AtomicInteger references = new AtomicInteger(1);
+        volatile long lastAccess;
+        volatile int frequency = 1;
+
+        private Entry(ByteBuffer[] pages, long size, byte[] head) {
+            this.pages = pages;
+            this.size = size;
+            this.head = head;
+            this.lastAccess = clock.incrementAndGet();
+        }
+
+        private boolean retain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    // Déjà évincée et ses pages rendues
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        @Override
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                for (ByteBuffer page : pages) {
+                    allocator.free(page);
+                }
+            }
+        }
+
+        @Override
+        public byte[] getHead() {
+            return head;
+        }
+
+        @Override
+        public long getBodyLength() {
+            return size - head.length;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public void writeRange(OutputStream out, WritableByteChannel channel, long offset, long length)
+                throws IOException {
+            byte[] chunk = channel == null ? new byte[8192] : null;
+            if (channel != null) {
+                out.flush();
+            }
+            int pageSize = allocator.getPageSize();
+            long position = head.length + offset;
+            long limit = position + length;
+            while (position < limit) {
+                ByteBuffer view = pages[(int) (position / pageSize)].duplicate();
+                int start = (int) (position % pageSize);
+                int end = (int) Math.min(pageSize, start + (limit - position));
+                view.limit(end).position(start);
+                position += end - start;
+                if (channel != null) {
+                    while (view.hasRemaining()) {
+                        channel.write(view);
+                    }
+                } else {
+                    while (view.hasRemaining()) {
+                        int count = Math.min(chunk.length, view.remaining());
+                        view.get(chunk, 0, count);
+                        out.write(chunk, 0, count);
+                    }
+                }
+            }
+        }
+
+        // Lecture page par page ; l'entrée doit rester retenue (pas de release()) pendant la lecture
+        @Override
+        public InputStream openBody() {
+            return new InputStream() {
+                private long position = head.length;
+
+                @Override
+                public int read() {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (position >= size) {
+                        return -1;
+                    }
+                    int pageSize = allocator.getPageSize();
+                    int start = (int) (position % pageSize);
+                    int length = (int) Math.min(len, Math.min(pageSize - start, size - position));
+                    pages[(int) (position / pageSize)].duplicate().position(start).get(b, off, length);
+                    position += length;
+                    return length;
+                }
+
+                @Override
+                public int available() {
+                    return (int) Math.min(Integer.MAX_VALUE, size - position);
+                }
+            };
+        }
+    }
+
+    // Réponse en cours de copie vers le niveau mémoire ; abandonnée si la place manque
+    public class Writer {
+        private final List<ByteBuffer> pages = new ArrayList<>();
+        private ByteBuffer current;
+        private long size;
+        private boolean abandoned;
+
+        public boolean write(byte[] b, int off, int len) {
+            if (abandoned) {
+                return false;
+            }
+            while (len > 0) {
+                if (current == null || !current.hasRemaining()) {
+                    current = allocatePage();
+                    if (current == null) {
+                        abandon();
+                        return false;
+                    }
+                    pages.add(current);
+                }
+                int count = Math.min(len, current.remaining());
+                current.put(b, off, count);
+                off += count;
+                len -= count;
+                size += count;
+            }
+            return true;
+        }
+
+        // Copie count octets du fichier directement dans les pages, sans passer par le tas
+        public boolean write(FileChannel source, long position, long count) throws IOException {
+            long end = position + count;
+            while (!abandoned && position < end) {
+                if (current == null || !current.hasRemaining()) {
+                    current = allocatePage();
+                    if (current == null) {
+                        abandon();
+                        return false;
+                    }
+                    pages.add(current);
+                }
+                int limit = current.limit();
+                current.limit((int) Math.min(limit, current.position() + (end - position)));
+                int bytesRead = source.read(current, position);
+                current.limit(limit);
+                if (bytesRead < 0) {
+                    abandon();
+                    throw new EOFException("Fichier tronqué pendant la copie en mémoire");
+                }
+                position += bytesRead;
+                size += bytesRead;
+            }
+            return !abandoned;
+        }
+
+        public void abandon() {
+            if (!abandoned) {
+                abandoned = true;
+                for (ByteBuffer page : pages) {
+                    allocator.free(page);
+                }
+                pages.clear();
+            }
+        }
+    }
+
+    public MemoryCache(SlabAllocator allocator, String policy) {
+        this.allocator = allocator;
+        this.lfu = policy.equalsIgnoreCase("lfu");
+    }
+
+    public Writer newWriter() {
+        return new Writer();
+    }
+
+    /**
+     * Entrée trouvée, avec une référence prise pour l'appelant, qui doit appeler release()
+     * après l'envoi ; null si absente.
+     */
+    public Entry acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.retain()) {
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        // Incrément approximatif sous concurrence : suffisant pour classer les entrées
+        entry.frequency++;
+        return entry;
+    }
+
+    // Publie la réponse copiée par le writer ; sans effet s'il a été abandonné
+    public void put(String key, Writer writer) {
+        if (writer.abandoned) {
+            return;
+        }
+        // L'en-tête est recopié sur le tas une fois pour toutes, le corps reste hors tas
+        ByteBuffer[] pages = writer.pages.toArray(new ByteBuffer[0]);
+        int headLength = HttpResponseHead.indexOfHeadEnd(readPages(pages, (int) Math.min(writer.size, 64 * 1024)));
+        Entry entry = new Entry(pages, writer.size, readPages(pages, Math.max(0, headLength)));
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    public void put(String key, byte[] data) {
+        Writer writer = newWriter();
+        if (writer.write(data, 0, data.length)) {
+            put(key, writer);
+        }
+    }
+
+    public void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            entry.release();
+        }
+    }
+
+    public boolean containsKey(String key) {
+        return entries.containsKey(key);
+    }
+
+    public void clear() {
+        for (String key : entries.keySet()) {
+            remove(key);
+        }
+    }
+
+    public Set<String> keySet() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getUsedBytes() {
+        return allocator.getUsedBytes();
+    }
+
+    public long getCapacityBytes() {
+        return allocator.getCapacityBytes();
+    }
+
+    private byte[] readPages(ByteBuffer[] pages, int length) {
+        byte[] bytes = new byte[length];
+        int pageSize = allocator.getPageSize();
+        for (int done = 0; done < length; ) {
+            ByteBuffer view = pages[done / pageSize].duplicate();
+            int start = done % pageSize;
+            int count = Math.min(pageSize - start, length - done);
+            view.limit(start + count).position(start);
+            view.get(bytes, done, count);
+            done += count;
+        }
+        return bytes;
+    }
+
+    private ByteBuffer allocatePage() {
+        ByteBuffer page = allocator.allocate();
+        if (page == null) {
+            // Libérer d'un coup une fraction du budget pour ne pas évincer à chaque page
+            evict(Math.max(allocator.getPageSize(), allocator.getCapacityBytes() / 64));
+            page = allocator.allocate();
+        }
+        return page;
+    }
+
+    /**
+     * Retire des entrées jusqu'à libérer bytesNeeded octets : les moins récentes d'abord (LRU), ou
+     * celles qui rapportent le moins de hits par page occupée (LFU), pour qu'un gros objet peu
+     * demandé parte avant plusieurs petits objets populaires.
+     */
+    private void evict(long bytesNeeded) {
+        evictionLock.lock();
+        try {
+            // Scores figés avant le tri : les lectures continuent de les modifier pendant ce temps
+            int pageSize = allocator.getPageSize();
+            List<Victim> candidates = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                Entry entry = candidate.getValue();
+                double score = lfu ? (double) entry.frequency / pageCount(entry, pageSize) : 0;
+                candidates.add(new Victim(candidate.getKey(), entry, score, entry.lastAccess));
+            }
+            candidates.sort(Comparator.comparingDouble((Victim v) -> v.score).thenComparingLong(v -> v.lastAccess));
+
+            long freed = 0;
+            for (Victim victim : candidates) {
+                if (freed >= bytesNeeded) {
+                    break;
+                }
+                if (entries.remove(victim.key, victim.entry)) {
+                    freed += (long) pageCount(victim.entry, pageSize) * pageSize;
+                    victim.entry.release();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Victim {
+        final String key;
+        final Entry entry;
+        final double score;
+        final long lastAccess;
+
+        Victim(String key, Entry entry, double score, long lastAccess) {
+            this.key = key;
+            this.entry = entry;
+            this.score = score;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static int pageCount(Entry entry, int pageSize) {
+        return (int) ((entry.size + pageSize - 1) / pageSize);
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Compteurs et histogrammes de latence du proxy depuis le démarrage. L'enregistrement ne prend
+ * aucun verrou ; le rapport, lu par la commande stats et par /__proxy/stats, assemble ces mesures
+ * avec celles du regroupement des requêtes et du cache.
+ */
+public final class Metrics {
+    // Requête servie depuis le cache : de la lecture des en-têtes à l'écriture de la réponse
+    public static final LatencyHistogram HIT_LATENCY = new LatencyHistogram();
+    // Requête absente du cache : de la lecture des en-têtes à la fin de la transmission
+    public static final LatencyHistogram MISS_LATENCY = new LatencyHistogram();
+    // Envoi de la requête à l'origine jusqu'à la réception de l'en-tête de sa réponse
+    public static final LatencyHistogram ORIGIN_LATENCY = new LatencyHistogram();
+
+    private static final LongAdder bytesServed = new LongAdder();
+    private static final LongAdder originFetches = new LongAdder();
+    private static final LongAdder originErrors = new LongAdder();
+    private static final LongAdder revalidations = new LongAdder();
+    private static final LongAdder clientErrors = new LongAdder();
+    private static volatile IntSupplier activeConnections = () -> 0;
+
+    private Metrics() {
+    }
+
+    public static void setActiveConnections(IntSupplier supplier) {
+        activeConnections = supplier;
+    }
+
+    public static void addBytesServed(long bytes) {
+        bytesServed.add(bytes);
+    }
+
+    public static void recordOriginFetch(long nanos) {
+        originFetches.increment();
+        ORIGIN_LATENCY.recordNanos(nanos);
+    }
+
+    public static void recordOriginError() {
+        originErrors.increment();
+    }
+
+    public static void recordRevalidation() {
+        revalidations.increment();
+    }
+
+    public static void recordClientError() {
+        clientErrors.increment();
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("connexions actives : ").append(activeConnections.getAsInt()).append('\n');
+        report.append("octets envoyés aux clients : ").append(bytesServed.sum()).append('\n');
+        report.append("requêtes à l'origine : ").append(originFetches.sum())
+                .append(", erreurs : ").append(originErrors.sum())
+                .append(", revalidations (304) : ").append(revalidations.sum()).append('\n');
+        report.append("requêtes client en erreur : ").append(clientErrors.sum()).append('\n');
+        report.append("téléchargements menés : ").append(RequestCoalescer.getLeaderCount())
+                .append(", requêtes regroupées : ").append(RequestCoalescer.getCoalescedCount())
+                .append(", en cours : ").append(RequestCoalescer.getInFlightCount()).append('\n');
+        report.append("latence succès : ").append(HIT_LATENCY.describe()).append('\n');
+        report.append("latence échec : ").append(MISS_LATENCY.describe()).append('\n');
+        report.append("latence origine : ").append(ORIGIN_LATENCY.describe()).append('\n');
+        CacheManager.appendStats(report);
+        PartialCache.appendStats(report);
+        CacheRefresher.appendStats(report);
+        Compression.appendStats(report);
+        PeerCluster.appendStats(report);
+        report.append("messages de journal perdus : ").append(Log.getDroppedCount()).append('\n');
+        return report.toString();
+    }
+}
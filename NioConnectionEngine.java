@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Boucle d'événements sur un Selector : les connexions inactives n'occupent aucun thread,
+// elles ne sont confiées à un worker que lorsqu'une requête est lisible
+public class NioConnectionEngine extends ConnectionEngine {
+    private static final long IDLE_TIMEOUT = ConfigManager.getLong("client.keepalive.timeout", 15000);
+
+    private final ExecutorService executor;
+    private final Queue<SocketChannel> parkedChannels = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private SelectionKey acceptKey;
+
+    public NioConnectionEngine(int maxConnections) {
+        super(maxConnections);
+        ExecutorService virtualExecutor = newVirtualExecutor();
+        this.executor = virtualExecutor != null
+                ? virtualExecutor
+                : Executors.newFixedThreadPool(ConfigManager.getInt("proxy.nio.workers", 64), namedFactory("nio-worker"));
+    }
+
+    @Override
+    public void bind(String ipAddress, int port, int backlog) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(InetAddress.getByName(ipAddress), port), backlog);
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    @Override
+    public void serve() throws IOException {
+        List<SocketChannel> ready = new ArrayList<>();
+        try {
+            while (running) {
+                // Réactiver l'acceptation dès qu'une place se libère
+                if (acceptKey.isValid() && acceptKey.interestOps() == 0 && permits.availablePermits() > 0) {
+                    acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+
+                registerParked();
+
+                selector.select(Math.max(100, IDLE_TIMEOUT / 4));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        key.cancel();
+                        ready.add((SocketChannel) key.channel());
+                    }
+                }
+
+                if (!ready.isEmpty()) {
+                    // Les clés annulées ne sont retirées qu'au prochain select
+                    selector.selectNow();
+                    for (SocketChannel channel : ready) {
+                        dispatch(channel);
+                    }
+                    ready.clear();
+                }
+
+                closeIdle();
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        while (permits.tryAcquire()) {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                permits.release();
+                return;
+            }
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("client connecté: " + channel.socket().getInetAddress());
+            }
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, System.currentTimeMillis());
+        }
+        // Limite atteinte : on laisse les connexions dans le backlog du noyau
+        acceptKey.interestOps(0);
+    }
+
+    private void dispatch(SocketChannel channel) {
+        try {
+            channel.configureBlocking(true);
+            executor.execute(() -> handle(channel.socket()));
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Connexions keep-alive rendues par les workers, enregistrées depuis la boucle d'événements
+    private void registerParked() throws IOException {
+        SocketChannel channel;
+        while ((channel = parkedChannels.poll()) != null) {
+            if (!running) {
+                channel.close();
+                permits.release();
+                continue;
+            }
+            channel.register(selector, SelectionKey.OP_READ, System.currentTimeMillis());
+        }
+    }
+
+    // Ferme les connexions qui n'ont rien envoyé depuis client.keepalive.timeout
+    private void closeIdle() throws IOException {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Long && now - (Long) key.attachment() > IDLE_TIMEOUT) {
+                key.cancel();
+                key.channel().close();
+                release();
+            }
+        }
+    }
+
+    @Override
+    protected boolean canPark() {
+        return true;
+    }
+
+    @Override
+    protected boolean park(Socket clientSocket) {
+        SocketChannel channel = clientSocket.getChannel();
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            return false;
+        }
+        parkedChannels.add(channel);
+        selector.wakeup();
+        return true;
+    }
+
+    @Override
+    protected void release() {
+        super.release();
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    protected void closeListener() {
+        // La boucle d'événements ferme elle-même ses canaux en sortant
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    protected ExecutorService executor() {
+        return executor;
+    }
+}
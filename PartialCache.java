@@ -0,0 +1,421 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Réponses connues en partie seulement, remplies par les requêtes Range transmises à l'origine :
+ * chaque réponse 206 est écrite à sa position dans un fichier creux (.part) du répertoire du cache,
+ * et les intervalles reçus sont servis depuis ce fichier. Une fois la représentation entièrement
+ * couverte, elle devient une entrée ordinaire du cache. Les entrées partielles sont gardées en
+ * mémoire seulement : leurs fichiers sont supprimés au redémarrage.
+ */
+public final class PartialCache {
+    private static final File DIRECTORY = new File(ConfigManager.get("cache.directory", "cache"));
+    private static final long DEFAULT_TTL = ConfigManager.getDefaultExpiration();
+    // Octets reçus gardés pour l'ensemble des entrées partielles
+    private static final long CAPACITY = ConfigManager.getSize("cache.partial.bytes", 256L * 1024 * 1024);
+    // Au-delà, la représentation complète ne pourrait pas entrer dans le cache disque
+    private static final long MAX_OBJECT = ConfigManager.getSize("cache.disk.bytes", 1024L * 1024 * 1024);
+
+    // Ordre d'accès : la première entrée est la moins récemment utilisée
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private static long usedBytes;
+
+    private static final AtomicLong servedCount = new AtomicLong();
+    private static final AtomicLong filledBytes = new AtomicLong();
+    private static final AtomicLong completedCount = new AtomicLong();
+
+    static {
+        DIRECTORY.mkdirs();
+        File[] leftovers = DIRECTORY.listFiles((dir, name) -> name.endsWith(".part"));
+        if (leftovers != null) {
+            for (File file : leftovers) {
+                file.delete();
+            }
+        }
+    }
+
+    private PartialCache() {
+    }
+
+    private static class Entry {
+        final String url;
+        final File file;
+        final long total;
+        // ETag, sinon Last-Modified : une réponse 206 d'une autre version remplace l'entrée
+        final String validator;
+        // En-tête 200 de la représentation complète
+        final HttpResponseHead head;
+        final long expires;
+        // Intervalles reçus, disjoints : début -> fin exclue
+        final TreeMap<Long, Long> covered = new TreeMap<>();
+        long coveredBytes;
+        boolean removed;
+
+        Entry(String url, File file, long total, String validator, HttpResponseHead head, long expires) {
+            this.url = url;
+            this.file = file;
+            this.total = total;
+            this.validator = validator;
+            this.head = head;
+            this.expires = expires;
+        }
+
+        // Ajoute [start, end) en fusionnant les intervalles qui le touchent ; renvoie les octets nouveaux
+        long add(long start, long end) {
+            long before = coveredBytes;
+            Map.Entry<Long, Long> floor = covered.floorEntry(start);
+            if (floor != null && floor.getValue() >= start) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+                covered.remove(floor.getKey());
+                coveredBytes -= floor.getValue() - floor.getKey();
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = covered.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                covered.remove(next.getKey());
+                coveredBytes -= next.getValue() - next.getKey();
+            }
+            covered.put(start, end);
+            coveredBytes += end - start;
+            return coveredBytes - before;
+        }
+
+        boolean contains(long start, long end) {
+            Map.Entry<Long, Long> floor = covered.floorEntry(start);
+            return floor != null && floor.getValue() >= end;
+        }
+
+        boolean isComplete() {
+            return coveredBytes >= total;
+        }
+    }
+
+    /**
+     * Réponse servant l'intervalle demandé depuis l'entrée partielle de l'URL, ou null si l'entrée
+     * est absente, expirée, ou ne couvre pas l'intervalle. L'en-tête est celui de la réponse
+     * complète : l'appelant en tire la réponse 206 ou 416. release() à appeler après l'envoi.
+     */
+    public static CachedResponse get(String url, ByteRange range) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(url);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() >= entry.expires) {
+                removeLocked(entry);
+                return null;
+            }
+            if (range.isSatisfiable(entry.total)
+                    && !entry.contains(range.start(entry.total), range.end(entry.total) + 1)) {
+                return null;
+            }
+            // Ouvert sous le verrou : le fichier ne peut pas être celui d'une entrée qui la remplace
+            try {
+                CachedResponse response = new PartialResponse(
+                        FileChannel.open(entry.file.toPath(), StandardOpenOption.READ), entry);
+                servedCount.incrementAndGet();
+                return response;
+            } catch (IOException e) {
+                removeLocked(entry);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Ouvre le remplissage de l'entrée de l'URL avec le corps d'une réponse 206 de l'origine,
+     * écrit à partir du premier octet de son Content-Range. null si la réponse ne s'y prête pas :
+     * taille totale inconnue, corps encodé, ou représentation trop grande pour le cache.
+     */
+    public static Filler open(String url, HttpResponseHead partial) throws IOException {
+        long[] contentRange = parseContentRange(partial.get("Content-Range"));
+        String encoding = partial.get("Content-Encoding");
+        if (contentRange == null || contentRange[2] > MAX_OBJECT
+                || (encoding != null && !encoding.trim().equalsIgnoreCase("identity"))) {
+            return null;
+        }
+        long total = contentRange[2];
+        String validator = partial.get("ETag") != null ? partial.get("ETag") : partial.get("Last-Modified");
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(url);
+            if (entry != null && (entry.total != total || validator == null || !validator.equals(entry.validator)
+                    || System.currentTimeMillis() >= entry.expires)) {
+                // Autre version de la ressource : les intervalles déjà reçus ne lui correspondent plus
+                removeLocked(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                HttpResponseHead head = HttpResponseHead.parse(partial.toBytes());
+                head.setStatus(200, "OK");
+                head.remove("Content-Range");
+                head.remove("Transfer-Encoding");
+                head.set("Content-Length", String.valueOf(total));
+                long expires = Freshness.expiresAt(head, System.currentTimeMillis(), DEFAULT_TTL);
+                File file = new File(DIRECTORY, CacheManager.getCacheFileName(url) + ".part");
+                entry = new Entry(url, file, total, validator, head, expires);
+                // Un fichier laissé par une entrée retirée ne doit pas fournir d'octets à celle-ci
+                file.delete();
+                entries.put(url, entry);
+            }
+        }
+        FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        return new Filler(entry, channel, contentRange[0], contentRange[1] + 1);
+    }
+
+    /**
+     * Écrit le corps reçu à sa position ; chaque écriture est aussitôt servie aux requêtes qui
+     * suivent. close() transforme l'entrée en entrée ordinaire du cache si elle est complète.
+     */
+    public static class Filler extends OutputStream {
+        private final Entry entry;
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private boolean stopped;
+
+        private Filler(Entry entry, FileChannel channel, long start, long end) {
+            this.entry = entry;
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // Au-delà de l'intervalle annoncé, ou entrée retirée : le reste n'est pas gardé
+            len = (int) Math.min(len, end - position);
+            if (stopped || len <= 0) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset);
+            }
+            synchronized (entries) {
+                if (entry.removed) {
+                    stopped = true;
+                    return;
+                }
+                long added = entry.add(position, position + len);
+                usedBytes += added;
+                filledBytes.addAndGet(added);
+                evictLocked(entry);
+            }
+            position += len;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            File body = null;
+            synchronized (entries) {
+                if (!entry.removed && entry.isComplete()) {
+                    removeLocked(entry, false);
+                    body = detach(entry);
+                }
+            }
+            if (body != null) {
+                // Assemblage de l'en-tête et du corps confié à l'écriture différée du cache
+                CacheManager.storeFile(entry.url, entry.head, entry.expires, body);
+                completedCount.incrementAndGet();
+                if (Log.isEnabled(Log.DEBUG)) {
+                    Log.debug("Entrée partielle complétée : " + entry.url);
+                }
+            }
+        }
+    }
+
+    // Renomme le fichier creux d'une entrée complétée : une nouvelle entrée partielle de la même URL
+    // ne peut plus le supprimer ni y écrire. Sous le verrou, comme la création des entrées.
+    private static File detach(Entry entry) {
+        try {
+            File body = File.createTempFile(CacheManager.getCacheFileName(entry.url) + ".", ".part", DIRECTORY);
+            Files.move(entry.file.toPath(), body.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return body;
+        } catch (IOException e) {
+            Log.error("Erreur lors de la mise en cache de l'entrée partielle " + entry.url + " : " + e.getMessage());
+            entry.file.delete();
+            return null;
+        }
+    }
+
+    // Moins récemment utilisées d'abord, sans toucher à celle en cours de remplissage
+    private static void evictLocked(Entry filling) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        List<Entry> victims = new ArrayList<>();
+        long used = usedBytes;
+        while (used > CAPACITY && iterator.hasNext()) {
+            Entry candidate = iterator.next();
+            if (candidate != filling) {
+                victims.add(candidate);
+                used -= candidate.coveredBytes;
+            }
+        }
+        for (Entry victim : victims) {
+            removeLocked(victim);
+        }
+        if (usedBytes > CAPACITY) {
+            // Seule, elle dépasse la capacité : elle n'est pas gardée
+            removeLocked(filling);
+        }
+    }
+
+    private static void removeLocked(Entry entry) {
+        removeLocked(entry, true);
+    }
+
+    private static void removeLocked(Entry entry, boolean deleteFile) {
+        if (entry.removed) {
+            return;
+        }
+        entry.removed = true;
+        entries.remove(entry.url, entry);
+        usedBytes -= entry.coveredBytes;
+        // Les envois en cours gardent leur canal ouvert sur le fichier supprimé
+        if (deleteFile) {
+            entry.file.delete();
+        }
+    }
+
+    // Retire l'entrée partielle de l'URL (invalidation, suppression)
+    public static void remove(String url) {
+        synchronized (entries) {
+            Entry entry = entries.get(url);
+            if (entry != null) {
+                removeLocked(entry);
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                removeLocked(entry);
+            }
+        }
+    }
+
+    // Content-Range: bytes a-b/total -> {a, b, total} ; null si absent, invalide ou de taille inconnue
+    static long[] parseContentRange(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        if (value.length() < 6 || !value.regionMatches(true, 0, "bytes ", 0, 6)) {
+            return null;
+        }
+        int dash = value.indexOf('-', 6);
+        int slash = value.indexOf('/', 6);
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(value.substring(6, dash).trim());
+            long last = Long.parseLong(value.substring(dash + 1, slash).trim());
+            long total = Long.parseLong(value.substring(slash + 1).trim());
+            if (first < 0 || last < first || last >= total) {
+                return null;
+            }
+            return new long[] {first, last, total};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Intervalles d'une entrée partielle, lus à leur position dans le fichier creux
+    private static class PartialResponse extends CachedResponse {
+        private final FileChannel file;
+        private final Entry entry;
+        private final byte[] head;
+
+        PartialResponse(FileChannel file, Entry entry) {
+            this.file = file;
+            this.entry = entry;
+            this.head = entry.head.toBytes();
+        }
+
+        @Override
+        public byte[] getHead() {
+            return head;
+        }
+
+        @Override
+        public long getBodyLength() {
+            return entry.total;
+        }
+
+        @Override
+        public void writeRange(OutputStream out, WritableByteChannel channel, long offset, long length)
+                throws IOException {
+            long position = offset;
+            long limit = offset + length;
+            if (channel != null) {
+                out.flush();
+                while (position < limit) {
+                    position += file.transferTo(position, limit - position, channel);
+                }
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (position < limit) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), limit - position));
+                int bytesRead = file.read(buffer, position);
+                if (bytesRead < 0) {
+                    throw new IOException("Fichier partiel tronqué : " + entry.url);
+                }
+                out.write(buffer.array(), 0, bytesRead);
+                position += bytesRead;
+            }
+        }
+
+        // Le corps complet n'est pas disponible : seuls des intervalles peuvent être servis
+        @Override
+        public InputStream openBody() throws IOException {
+            throw new IOException("Corps incomplet pour une entrée partielle : " + entry.url);
+        }
+
+        @Override
+        public void release() {
+            try {
+                file.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    public static void appendStats(StringBuilder report) {
+        synchronized (entries) {
+            report.append("entrées partielles : ").append(entries.size()).append(", ").append(usedBytes)
+                    .append(" / ").append(CAPACITY).append(" octets");
+        }
+        report.append(", intervalles servis : ").append(servedCount.get()).append(", octets reçus : ")
+                .append(filledBytes.get()).append(", complétées : ").append(completedCount.get()).append('\n');
+    }
+}
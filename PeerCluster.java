@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache coopératif entre plusieurs instances du proxy : les nœuds de cluster.peers forment un
+ * anneau de hachage cohérent sur les URL, et chaque URL a un nœud responsable. Une ressource
+ * absente du cache local est demandée à ce nœud plutôt qu'à l'origine ; elle n'est ainsi
+ * téléchargée et stockée qu'une fois pour tout le cluster. Un pair injoignable est retiré de
+ * l'anneau jusqu'à ce que les vérifications de santé le retrouvent : ses URL reviennent entre-temps
+ * au nœud suivant de l'anneau, le même pour tous les nœuds.
+ */
+public final class PeerCluster {
+    // Nœuds du cluster, host:port séparés par des virgules, celui-ci compris ; vide : mode désactivé
+    private static final String PEERS = ConfigManager.get("cluster.peers", "").trim();
+    // Identité de ce nœud dans cluster.peers
+    private static final String SELF = ConfigManager.get("cluster.self",
+            ConfigManager.get("proxy.ip", "localhost") + ":" + ConfigManager.getInt("proxy.port", 9000)).trim();
+    // Points de chaque nœud sur l'anneau : plus il y en a, plus la répartition des URL est régulière
+    private static final int VIRTUAL_NODES = Math.max(1, ConfigManager.getInt("cluster.virtual.nodes", 160));
+    private static final String HEALTH_PATH = ConfigManager.get("proxy.health.path", "/__proxy/health");
+    private static final long HEALTH_INTERVAL = ConfigManager.getLong("cluster.health.interval", 2000);
+    private static final int HEALTH_TIMEOUT = ConfigManager.getInt("cluster.health.timeout", 1000);
+    // Échecs consécutifs avant de retirer un pair, succès consécutifs avant de le réintégrer
+    private static final int FALL = Math.max(1, ConfigManager.getInt("cluster.health.fall", 2));
+    private static final int RISE = Math.max(1, ConfigManager.getInt("cluster.health.rise", 2));
+
+    // Position sur l'anneau -> nœud ; null pour ce nœud-ci. Construit une fois, lu sans verrou
+    private static final NavigableMap<Long, Peer> ring = new TreeMap<>();
+    private static final Map<String, Peer> peers = new LinkedHashMap<>();
+    private static ScheduledExecutorService healthChecker;
+
+    private static final AtomicLong failoverCount = new AtomicLong();
+    private static final AtomicLong backpressureCount = new AtomicLong();
+    private static final AtomicLong servedForPeersCount = new AtomicLong();
+
+    static {
+        if (!PEERS.isEmpty()) {
+            boolean selfListed = false;
+            List<String> nodes = new ArrayList<>();
+            for (String node : PEERS.split("\\s*,\\s*")) {
+                if (!node.isEmpty() && !nodes.contains(node)) {
+                    nodes.add(node);
+                    selfListed |= node.equals(SELF);
+                }
+            }
+            if (!selfListed) {
+                Log.warn("cluster.self (" + SELF + ") absent de cluster.peers : ajouté à l'anneau");
+                nodes.add(SELF);
+            }
+            for (String node : nodes) {
+                Peer peer = null;
+                if (!node.equals(SELF)) {
+                    peer = Peer.parse(node);
+                    if (peer == null) {
+                        Log.warn("Pair ignoré, adresse invalide : " + node);
+                        continue;
+                    }
+                    peers.put(node, peer);
+                }
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(hash(node + "#" + i), peer);
+                }
+            }
+        }
+    }
+
+    private PeerCluster() {
+    }
+
+    // Pair du cluster, et son état vu depuis ce nœud
+    public static final class Peer {
+        private final String host;
+        private final int port;
+        private volatile boolean up = true;
+        // Résultats consécutifs de même sens, pour FALL et RISE ; modifiés par le seul vérificateur
+        private int failures;
+        private int successes;
+        private final AtomicLong forwarded = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        private Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        static Peer parse(String node) {
+            int colon = node.lastIndexOf(':');
+            if (colon <= 0) {
+                return null;
+            }
+            try {
+                return new Peer(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    // Nom de ce nœud, transmis aux pairs avec les requêtes relayées
+    public static String selfName() {
+        return SELF;
+    }
+
+    /**
+     * Pair responsable de l'URL, ou null si c'est ce nœud (ou le mode désactivé). Les pairs hors
+     * service sont sautés : l'URL revient au premier nœud disponible qui les suit sur l'anneau.
+     */
+    public static Peer ownerOf(String url) {
+        if (peers.isEmpty()) {
+            return null;
+        }
+        long position = hash(url);
+        // Un tour de l'anneau dans le sens horaire, à partir de la position de l'URL
+        for (Peer peer : ring.tailMap(position, true).values()) {
+            if (peer == null || peer.up) {
+                return peer;
+            }
+        }
+        for (Peer peer : ring.headMap(position, false).values()) {
+            if (peer == null || peer.up) {
+                return peer;
+            }
+        }
+        return null;
+    }
+
+    // Connexion au pair refusée ou impossible : retiré aussitôt, sans attendre la vérification de santé
+    public static void reportUnreachable(Peer peer, IOException e) {
+        peer.errors.incrementAndGet();
+        failoverCount.incrementAndGet();
+        if (peer.up) {
+            peer.up = false;
+            Log.warn("Pair " + peer + " injoignable, retiré de l'anneau : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pool de connexions vers le pair saturé, délai de lecture dépassé... : engorgement passager,
+     * la requête va à l'origine mais le pair reste dans l'anneau. Seules les vérifications de santé
+     * l'en retirent, pour que tous les nœuds gardent le même routage.
+     */
+    public static void reportBackpressure(Peer peer, IOException e) {
+        peer.errors.incrementAndGet();
+        backpressureCount.incrementAndGet();
+        if (Log.isEnabled(Log.DEBUG)) {
+            Log.debug("Pair " + peer + " engorgé, requête envoyée à l'origine : " + e.getMessage());
+        }
+    }
+
+    public static void recordForward(Peer peer) {
+        peer.forwarded.incrementAndGet();
+    }
+
+    public static void recordServedForPeer() {
+        servedForPeersCount.incrementAndGet();
+    }
+
+    // Vérifications de santé périodiques des pairs, jusqu'à shutdown()
+    public static void start() {
+        if (peers.isEmpty()) {
+            return;
+        }
+        Log.info("Cluster de " + (peers.size() + 1) + " nœuds, celui-ci : " + SELF);
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(PeerCluster::checkPeers, HEALTH_INTERVAL, HEALTH_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public static void shutdown() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+    }
+
+    private static void checkPeers() {
+        for (Peer peer : peers.values()) {
+            if (isHealthy(peer)) {
+                peer.failures = 0;
+                if (!peer.up && ++peer.successes >= RISE) {
+                    peer.up = true;
+                    Log.info("Pair " + peer + " de nouveau disponible, réintégré à l'anneau");
+                }
+            } else {
+                peer.successes = 0;
+                if (peer.up && ++peer.failures >= FALL) {
+                    peer.up = false;
+                    Log.warn("Pair " + peer + " hors service, retiré de l'anneau");
+                }
+            }
+        }
+    }
+
+    // Le pair répond 200 sur son chemin de santé dans le délai imparti
+    private static boolean isHealthy(Peer peer) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peer.host, peer.port), HEALTH_TIMEOUT);
+            socket.setSoTimeout(HEALTH_TIMEOUT);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + HEALTH_PATH + " HTTP/1.1\r\nHost: " + peer + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] statusLine = new byte[12];
+            int read = 0;
+            while (read < statusLine.length) {
+                int count = in.read(statusLine, read, statusLine.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+            return new String(statusLine, StandardCharsets.ISO_8859_1).endsWith(" 200");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // 64 premiers bits du MD5 : la même position sur tous les nœuds, quelle que soit la JVM
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void appendStats(StringBuilder report) {
+        if (peers.isEmpty()) {
+            return;
+        }
+        report.append("cluster : nœud ").append(SELF).append(", requêtes servies pour les pairs : ")
+                .append(servedForPeersCount.get()).append(", repli après échec d'un pair : ")
+                .append(failoverCount.get()).append(", pair engorgé (origine sollicitée) : ")
+                .append(backpressureCount.get()).append('\n');
+        for (Peer peer : peers.values()) {
+            report.append("  pair ").append(peer).append(" : ").append(peer.up ? "disponible" : "hors service")
+                    .append(", ").append(peer.forwarded.get()).append(" requêtes relayées, ")
+                    .append(peer.errors.get()).append(" échecs\n");
+        }
+    }
+}
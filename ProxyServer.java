@@ -1,15 +1,10 @@
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.Scanner;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 public class ProxyServer {
     private int port;
     private String ipAddress;
+    private ConnectionEngine engine;
 
     public ProxyServer(String ipAddress, int port) {
         this.ipAddress = ipAddress;
@@ -17,21 +12,43 @@ public class ProxyServer {
     }
 
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(ipAddress))) {
-            System.out.println("Serveur proxy IP: " + ipAddress + ", Port: " + port);
+        String engineName = ConfigManager.get("proxy.engine", "virtual");
+        int maxConnections = ConfigManager.getInt("proxy.max.connections", 1000);
+        int backlog = ConfigManager.getInt("proxy.backlog", 512);
 
-            new Thread(this::commandes).start();
+        engine = ConnectionEngine.create(engineName, maxConnections);
+        Metrics.setActiveConnections(engine::activeConnections);
+        try {
+            engine.bind(ipAddress, port, backlog);
+            System.out.println("Serveur proxy IP: " + ipAddress + ", Port: " + port
+                    + ", moteur: " + engineName + ", connexions max: " + maxConnections);
 
+            Thread commandThread = new Thread(this::commandes, "commandes");
+            commandThread.setDaemon(true);
+            commandThread.start();
+
+            // Index chargé avant d'accepter les connexions, préchargement de la mémoire en arrière-plan
+            CacheManager.warmUp();
             ConfigManager.configureCacheCleaner();
-            
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("client connecté: " + clientSocket.getInetAddress());
+            PeerCluster.start();
 
-                new Thread(new ClientHandler(clientSocket)).start();
-            }
+            engine.serve();
         } catch (IOException e) {
             System.err.println("serveur non initialisé: " + e.getMessage());
+        } finally {
+            ConfigManager.shutdownCacheCleaner();
+            CacheRefresher.shutdown();
+            PeerCluster.shutdown();
+            UpstreamPool.closeAll();
+            CacheManager.close();
+            Log.flush();
+        }
+    }
+
+    // Arrêt propre : plus de nouvelles connexions, on laisse finir celles en cours
+    public void stop() {
+        if (engine != null) {
+            engine.shutdown(ConfigManager.getLong("proxy.shutdown.timeout", 5000));
         }
     }
 
@@ -39,14 +56,17 @@ public class ProxyServer {
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print("> ");
+            if (!scanner.hasNextLine()) {
+                return;
+            }
             String command = scanner.nextLine().trim();
             String[] commandParts = command.split(" ", 2);
 
             switch (commandParts[0].toLowerCase()) {
                 case "exit":
                     System.out.println("arrêt du serveur");
-                    System.exit(0);
-                    break;
+                    stop();
+                    return;
                     
                 case "pat":
                     System.out.println("La cavalerie est là !");
@@ -65,6 +85,10 @@ public class ProxyServer {
                     CacheManager.listCache();
                     break;
 
+                case "stats":
+                    System.out.print(Metrics.report());
+                    break;
+
                 case "delete":
                     if (commandParts.length < 2) {
                         System.out.println("veuillez spécifier l'URL à supprimer du cache.");
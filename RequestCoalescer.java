@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Regroupe les défauts de cache simultanés sur une même URL : un seul téléchargement part vers l'origine
+public class RequestCoalescer {
+    private static final long WAIT_TIMEOUT = ConfigManager.getLong("upstream.read.timeout", 30000);
+
+    private static final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private static final AtomicLong leaderCount = new AtomicLong();
+    private static final AtomicLong coalescedCount = new AtomicLong();
+
+    // Téléchargement en cours, suivi par les requêtes arrivées pendant qu'il s'effectue
+    public static class Flight {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile CacheManager.CacheWriter writer;
+
+        /**
+         * Flux de la réponse en cours d'écriture par le meneur, lisible au fur et à mesure ;
+         * null si le meneur a terminé ou n'écrira rien dans le cache.
+         */
+        public InputStream openStream() throws IOException {
+            try {
+                if (!started.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            CacheManager.CacheWriter current = writer;
+            return current == null ? null : current.openReader();
+        }
+    }
+
+    // Renvoie le téléchargement en cours pour cette URL, ou null si l'appelant devient le meneur
+    public static Flight join(String url) {
+        Flight created = new Flight();
+        Flight existing = flights.putIfAbsent(url, created);
+        if (existing == null) {
+            leaderCount.incrementAndGet();
+            return null;
+        }
+        coalescedCount.incrementAndGet();
+        return existing;
+    }
+
+    // Le meneur a commencé à écrire la réponse : les requêtes en attente peuvent la suivre
+    public static void publish(String url, CacheManager.CacheWriter writer) {
+        Flight flight = flights.get(url);
+        if (flight != null) {
+            flight.writer = writer;
+            flight.started.countDown();
+        }
+    }
+
+    /**
+     * Le meneur ne publiera rien (réponse non stockable, revalidation 304) : les requêtes en attente
+     * repartent aussitôt vers le cache ou l'origine, sans attendre la fin de son transfert. Le
+     * téléchargement reste enregistré jusqu'à finish() ; celles qui le rejoignent d'ici là repartent aussi.
+     */
+    public static void release(String url) {
+        Flight flight = flights.get(url);
+        if (flight != null) {
+            flight.started.countDown();
+        }
+    }
+
+    // Fin du téléchargement, réussi ou non ; les requêtes suivantes iront au cache ou à l'origine
+    public static void finish(String url) {
+        Flight flight = flights.remove(url);
+        if (flight != null) {
+            flight.started.countDown();
+        }
+    }
+
+    public static long getLeaderCount() {
+        return leaderCount.get();
+    }
+
+    public static long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public static int getInFlightCount() {
+        return flights.size();
+    }
+}
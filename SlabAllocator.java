@@ -0,0 +1,71 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Mémoire hors tas découpée en pages de taille fixe. Les slabs (ByteBuffer directs) sont alloués
+ * à la demande jusqu'au budget, puis découpés en pages ; une page libérée est réutilisée telle quelle.
+ */
+public class SlabAllocator {
+    private final int pageSize;
+    private final int pagesPerSlab;
+    private final int maxSlabs;
+    private final Deque<ByteBuffer> freePages = new ArrayDeque<>();
+    private int slabCount;
+    private long usedPages;
+    private boolean exhausted;
+
+    public SlabAllocator(long budgetBytes, int pageSize, int slabSize) {
+        this.pageSize = pageSize;
+        this.pagesPerSlab = Math.max(1, slabSize / pageSize);
+        this.maxSlabs = (int) Math.max(1, budgetBytes / ((long) pagesPerSlab * pageSize));
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // Une page vide, ou null si le budget est entièrement utilisé
+    public synchronized ByteBuffer allocate() {
+        if (freePages.isEmpty() && !exhausted && slabCount < maxSlabs) {
+            addSlab();
+        }
+        ByteBuffer page = freePages.pollFirst();
+        if (page != null) {
+            usedPages++;
+            page.clear();
+        }
+        return page;
+    }
+
+    public synchronized void free(ByteBuffer page) {
+        usedPages--;
+        freePages.addFirst(page);
+    }
+
+    private void addSlab() {
+        ByteBuffer slab;
+        try {
+            slab = ByteBuffer.allocateDirect(pagesPerSlab * pageSize);
+        } catch (OutOfMemoryError e) {
+            // -XX:MaxDirectMemorySize plus petit que le budget configuré : on s'en tient à l'existant
+            System.err.println("Mémoire directe insuffisante, budget du cache mémoire limité à "
+                    + getCapacityBytes() + " octets");
+            exhausted = true;
+            return;
+        }
+        for (int i = 0; i < pagesPerSlab; i++) {
+            slab.limit((i + 1) * pageSize).position(i * pageSize);
+            freePages.addLast(slab.slice());
+        }
+        slabCount++;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedPages * pageSize;
+    }
+
+    public synchronized long getCapacityBytes() {
+        return exhausted ? (long) slabCount * pagesPerSlab * pageSize : (long) maxSlabs * pagesPerSlab * pageSize;
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Un thread (virtuel si possible) par connexion, borné par proxy.max.connections
+public class ThreadConnectionEngine extends ConnectionEngine {
+    private final ExecutorService executor;
+    private ServerSocket serverSocket;
+
+    public ThreadConnectionEngine(int maxConnections, boolean virtual) {
+        super(maxConnections);
+        ExecutorService virtualExecutor = virtual ? newVirtualExecutor() : null;
+        if (virtual && virtualExecutor == null) {
+            System.err.println("Threads virtuels indisponibles sur cette JVM, utilisation de threads classiques.");
+        }
+        this.executor = virtualExecutor != null
+                ? virtualExecutor
+                : Executors.newCachedThreadPool(namedFactory("client"));
+    }
+
+    @Override
+    public void bind(String ipAddress, int port, int backlog) throws IOException {
+        // Ouverte comme canal pour que les sockets acceptées aient aussi un canal (envois sans copie)
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getByName(ipAddress), port), backlog);
+        serverSocket = channel.socket();
+        running = true;
+    }
+
+    @Override
+    public void serve() throws IOException {
+        while (running) {
+            // On n'accepte plus tant que la limite est atteinte : le backlog du noyau absorbe la rafale
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept();
+            } catch (IOException e) {
+                // Fermeture du canal d'écoute par shutdown() : AsynchronousCloseException ou SocketException
+                permits.release();
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+
+            if (Log.isEnabled(Log.DEBUG)) {
+                Log.debug("client connecté: " + clientSocket.getInetAddress());
+            }
+            try {
+                executor.execute(() -> handle(clientSocket));
+            } catch (RuntimeException e) {
+                permits.release();
+                clientSocket.close();
+            }
+        }
+    }
+
+    @Override
+    protected void closeListener() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la fermeture du serveur : " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected ExecutorService executor() {
+        return executor;
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+// Connexion persistante vers un serveur d'origine, gérée par UpstreamPool
+public class UpstreamConnection {
+    private final String host;
+    private final int port;
+    private final Socket socket;
+    private final BufferedInputStream input;
+    private final BufferedOutputStream output;
+    private HttpResponseHead responseHead;
+    private long lastUsed;
+    private int requestCount;
+
+    UpstreamConnection(String host, int port, int connectTimeout, int readTimeout) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.socket = new Socket();
+        socket.setTcpNoDelay(true);
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+        } catch (SocketTimeoutException e) {
+            // Distingué d'un délai de lecture : le serveur n'a pas pu être joint du tout
+            socket.close();
+            throw new ConnectException("Délai de connexion dépassé vers " + host + ":" + port);
+        }
+        socket.setSoTimeout(readTimeout);
+        this.input = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.output = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // Vrai si la connexion a déjà servi : un échec d'envoi peut alors être rejoué sur une nouvelle
+    public boolean isReused() {
+        return requestCount > 0;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void markReleased() {
+        requestCount++;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    // En-tête de la dernière réponse lue par readResponseHead()
+    public HttpResponseHead getResponseHead() {
+        return responseHead;
+    }
+
+    // Requête sans corps préparée par le proxy lui-même (actualisation en arrière-plan)
+    public void sendRequest(ByteArrayOutputStream requestHead) throws IOException {
+        requestHead.writeTo(output);
+        output.flush();
+    }
+
+    // Envoie l'en-tête préparé, puis le corps éventuel de la requête du client, lu au fil de l'eau
+    public void sendRequest(ByteArrayOutputStream requestHead, HttpRequestParser request) throws IOException {
+        requestHead.writeTo(output);
+        request.transferBody(output);
+        output.flush();
+    }
+
+    /**
+     * Vérifie sans attendre qu'une connexion inactive est encore utilisable. Une fermeture par
+     * l'origine n'est pas toujours visible ici : la requête est alors rejouée sur une autre connexion.
+     */
+    boolean isHealthy() {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        try {
+            // Des octets non sollicités : l'état du flux n'est plus fiable
+            return input.available() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Lit l'en-tête de la réponse finale ; les réponses 1xx intermédiaires ne sont pas retransmises
+    public HttpResponseHead readResponseHead() throws IOException {
+        HttpResponseHead head;
+        do {
+            head = HttpResponseHead.read(input);
+            if (head == null) {
+                throw new EOFException("Connexion fermée par le serveur d'origine avant la réponse");
+            }
+        } while (head.isInterim());
+        if (head.get("Date") == null) {
+            // Date de réception, pour calculer l'âge de la réponse une fois en cache (RFC 9110, 6.6.1)
+            head.set("Date", Freshness.formatDate(System.currentTimeMillis()));
+        }
+        responseHead = head;
+        return head;
+    }
+
+    /**
+     * Recopie dans sink le corps de la réponse tel que reçu, au fil de l'eau. Le corps est délimité
+     * par Content-Length ou par le codage chunked ; renvoie vrai si la connexion peut être réutilisée.
+     */
+    public boolean transferBody(String method, HttpResponseHead head, OutputStream sink) throws IOException {
+        return transferBody(method, head, sink, null);
+    }
+
+    // Comme transferBody(), en écrivant en plus dans content le seul contenu, sans le découpage chunked
+    public boolean transferBody(String method, HttpResponseHead head, OutputStream sink,
+                                OutputStream content) throws IOException {
+        boolean keepAlive = head.isKeepAlive();
+        if (!head.hasBody(method)) {
+            return keepAlive;
+        }
+        if (head.isChunked()) {
+            copyChunked(sink, content);
+            return keepAlive;
+        }
+        long contentLength = head.getContentLength();
+        if (contentLength >= 0) {
+            copyExactly(sink, content, contentLength);
+            return keepAlive;
+        }
+
+        // Pas de délimitation : le corps se termine à la fermeture de la connexion
+        byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = input.read(buffer)) != -1) {
+            sink.write(buffer, 0, bytesRead);
+            if (content != null) {
+                content.write(buffer, 0, bytesRead);
+            }
+            flushIfIdle(sink, content);
+        }
+        return false;
+    }
+
+    private void copyChunked(OutputStream sink, OutputStream content) throws IOException {
+        while (true) {
+            String sizeLine = HttpResponseHead.readLine(input);
+            if (sizeLine == null) {
+                throw new EOFException("Corps chunked tronqué");
+            }
+            byte[] line = sizeLine.getBytes(StandardCharsets.ISO_8859_1);
+            long size = HttpRequestParser.parseChunkSize(line, 0, line.length);
+            if (size < 0) {
+                throw new IOException("Taille de bloc chunked invalide : " + sizeLine);
+            }
+            writeLine(sink, sizeLine);
+            if (size == 0) {
+                // Trailers éventuels jusqu'à la ligne vide finale
+                String trailer;
+                while ((trailer = HttpResponseHead.readLine(input)) != null && !trailer.isEmpty()) {
+                    writeLine(sink, trailer);
+                }
+                if (trailer == null) {
+                    throw new EOFException("Corps chunked tronqué");
+                }
+                writeLine(sink, "");
+                return;
+            }
+            copyExactly(sink, content, size);
+            String end = HttpResponseHead.readLine(input);
+            if (end == null || !end.isEmpty()) {
+                throw new IOException("Fin de bloc chunked invalide");
+            }
+            writeLine(sink, "");
+        }
+    }
+
+    private void copyExactly(OutputStream sink, OutputStream content, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int bytesRead = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead == -1) {
+                throw new EOFException("Corps de réponse tronqué (" + remaining + " octets manquants)");
+            }
+            sink.write(buffer, 0, bytesRead);
+            if (content != null) {
+                content.write(buffer, 0, bytesRead);
+            }
+            remaining -= bytesRead;
+            flushIfIdle(sink, content);
+        }
+    }
+
+    // Pousse vers le client (et les lecteurs du contenu) ce qui est déjà reçu avant de se bloquer sur la lecture suivante
+    private void flushIfIdle(OutputStream sink, OutputStream content) throws IOException {
+        if (input.available() == 0) {
+            sink.flush();
+            if (content != null) {
+                content.flush();
+            }
+        }
+    }
+
+    private static void writeLine(OutputStream sink, String line) throws IOException {
+        sink.write(line.getBytes(StandardCharsets.ISO_8859_1));
+        sink.write('\r');
+        sink.write('\n');
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+}
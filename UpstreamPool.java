@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Pool de connexions keep-alive vers les serveurs d'origine, par couple hôte:port
+public class UpstreamPool {
+    private static final int MAX_PER_HOST = ConfigManager.getInt("upstream.pool.max.per.host", 16);
+    private static final long IDLE_TIMEOUT = ConfigManager.getLong("upstream.pool.idle.timeout", 30000);
+    private static final long ACQUIRE_TIMEOUT = ConfigManager.getLong("upstream.pool.acquire.timeout", 10000);
+    private static final int CONNECT_TIMEOUT = ConfigManager.getInt("upstream.connect.timeout", 5000);
+    private static final int READ_TIMEOUT = ConfigManager.getInt("upstream.read.timeout", 30000);
+
+    private static final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upstream-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        long period = Math.max(1000, IDLE_TIMEOUT / 2);
+        reaper.scheduleAtFixedRate(UpstreamPool::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static class HostPool {
+        final Deque<UpstreamConnection> idle = new ArrayDeque<>();
+        final Semaphore slots = new Semaphore(MAX_PER_HOST);
+    }
+
+    // Emprunte une connexion saine, ou en ouvre une nouvelle si aucune n'est disponible
+    public static UpstreamConnection acquire(String host, int port) throws IOException {
+        HostPool pool = pools.computeIfAbsent(host + ":" + port, key -> new HostPool());
+        try {
+            if (!pool.slots.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Trop de connexions simultanées vers " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Attente d'une connexion interrompue", e);
+        }
+
+        try {
+            while (true) {
+                UpstreamConnection connection;
+                synchronized (pool) {
+                    connection = pool.idle.pollFirst();
+                }
+                if (connection == null) {
+                    return new UpstreamConnection(host, port, CONNECT_TIMEOUT, READ_TIMEOUT);
+                }
+                if (!isExpired(connection) && connection.isHealthy()) {
+                    return connection;
+                }
+                connection.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            pool.slots.release();
+            throw e;
+        }
+    }
+
+    // Rend la connexion au pool si sa dernière réponse a été lue en entier, sinon la ferme
+    public static void release(UpstreamConnection connection, boolean reusable) {
+        HostPool pool = pools.get(connection.getHost() + ":" + connection.getPort());
+        if (reusable && pool != null) {
+            connection.markReleased();
+            synchronized (pool) {
+                pool.idle.addFirst(connection);
+            }
+        } else {
+            connection.close();
+        }
+        if (pool != null) {
+            pool.slots.release();
+        }
+    }
+
+    private static boolean isExpired(UpstreamConnection connection) {
+        return System.currentTimeMillis() - connection.getLastUsed() > IDLE_TIMEOUT;
+    }
+
+    private static void evictIdle() {
+        for (HostPool pool : pools.values()) {
+            synchronized (pool) {
+                // Les plus anciennes sont en fin de file
+                while (!pool.idle.isEmpty() && isExpired(pool.idle.peekLast())) {
+                    pool.idle.pollLast().close();
+                }
+            }
+        }
+    }
+
+    public static void closeAll() {
+        reaper.shutdownNow();
+        for (HostPool pool : pools.values()) {
+            synchronized (pool) {
+                while (!pool.idle.isEmpty()) {
+                    pool.idle.pollFirst().close();
+                }
+            }
+        }
+    }
+}
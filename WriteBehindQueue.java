@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Écritures différées du cache disque. Les tâches sont traitées par lots sur un thread dédié ; après
+ * chaque lot, groupCommit (la synchronisation de l'index) est appelé une seule fois pour tout le lot.
+ * La file est bornée : quand elle est pleine, l'appelant attend qu'une place se libère (block) ou
+ * exécute lui-même sa tâche (sync).
+ */
+public class WriteBehindQueue {
+    private static final int MAX_BATCH = 256;
+
+    public interface Task {
+        void persist() throws IOException;
+    }
+
+    private final BlockingQueue<Task> queue;
+    private final boolean blockWhenFull;
+    private final long intervalMillis;
+    private final Runnable groupCommit;
+    private final Thread writer;
+    private volatile boolean closed;
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong taskCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    // intervalMillis : délai maximal avant le commit groupé des écritures en attente
+    public WriteBehindQueue(int capacity, boolean blockWhenFull, long intervalMillis, Runnable groupCommit) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.blockWhenFull = blockWhenFull;
+        this.intervalMillis = intervalMillis;
+        this.groupCommit = groupCommit;
+        this.writer = new Thread(this::drain, "cache-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void submit(Task task) {
+        if (closed) {
+            run(task);
+            return;
+        }
+        if (queue.offer(task)) {
+            return;
+        }
+        overflowCount.incrementAndGet();
+        if (blockWhenFull) {
+            try {
+                queue.put(task);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        run(task);
+    }
+
+    private void drain() {
+        List<Task> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Task first = queue.poll(intervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (Task task : batch) {
+                        run(task);
+                    }
+                    batchCount.incrementAndGet();
+                    batch.clear();
+                }
+                // Aussi sans tâche : les suppressions et revalidations ont pu ajouter des enregistrements
+                groupCommit.run();
+            } catch (InterruptedException e) {
+                // close() attend la fin de la boucle, qui vide la file avant de sortir
+            } catch (RuntimeException e) {
+                Log.error("Erreur dans l'écriture différée du cache : " + e.getMessage());
+            }
+        }
+    }
+
+    private void run(Task task) {
+        try {
+            task.persist();
+            taskCount.incrementAndGet();
+        } catch (IOException e) {
+            Log.error("Erreur lors de l'écriture différée dans le cache : " + e.getMessage());
+        }
+    }
+
+    // Termine les écritures en attente ; les tâches soumises ensuite sont exécutées par l'appelant
+    public void close(long timeoutMillis) {
+        closed = true;
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Task task;
+        while ((task = queue.poll()) != null) {
+            run(task);
+        }
+        groupCommit.run();
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Outils communs aux mesures : options nom=valeur de la ligne de commande, boucle de mesure, et
+ * configuration du proxy dans un répertoire temporaire, pour ne jamais toucher au cache ni à
+ * l'index réels. La configuration doit être préparée avant le premier accès à ConfigManager.
+ *
+ * Compilation sans Maven (les sources contiennent du texte en UTF-8) :
+ *   javac -encoding UTF-8 -d out *.java && javac -encoding UTF-8 -cp out -d out-bench bench/*.java
+ * Avec Maven, le profil bench compile aussi les mesures JMH de bench/jmh : mvn -Pbench package
+ */
+public class BenchSupport {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Résultats consommés pour que le JIT ne puisse pas supprimer les appels mesurés
+    public static volatile long sink;
+
+    public interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    public BenchSupport(String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Option attendue sous la forme nom=valeur : " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+    }
+
+    public String get(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        return Double.parseDouble(get(name, String.valueOf(defaultValue)));
+    }
+
+    // Taille avec suffixe k, m ou g
+    public long getSize(String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim().toLowerCase();
+        long multiplier = 1;
+        if (value.endsWith("k")) {
+            multiplier = 1024;
+        } else if (value.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (value.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * multiplier;
+    }
+
+    public static void printHeader() {
+        System.out.printf("%-40s %14s %12s %14s %12s%n", "Mesure", "ns/op", "± écart", "ops/s", "octets/op");
+    }
+
+    /**
+     * Exécute l'opération warmup fois puis iterations fois pendant timeMillis, et affiche la moyenne
+     * en ns/op, l'écart-type entre itérations et les octets alloués par opération sur ce thread.
+     */
+    public static void measure(String name, int warmup, int iterations, long timeMillis, Operation operation)
+            throws Exception {
+        int counter = 0;
+        long[] count = new long[1];
+        for (int i = 0; i < warmup; i++) {
+            counter = runFor(timeMillis, operation, counter, count);
+        }
+        double[] scores = new double[iterations];
+        long operations = 0;
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            counter = runFor(timeMillis, operation, counter, count);
+            scores[i] = (double) (System.nanoTime() - start) / count[0];
+            operations += count[0];
+        }
+        double allocated = (double) (THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore) / operations;
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double variance = Arrays.stream(scores).map(s -> (s - mean) * (s - mean)).sum() / Math.max(1, iterations - 1);
+        System.out.printf("%-40s %14.1f %12.1f %14.0f %12.1f%n", name, mean, Math.sqrt(variance), 1e9 / mean, allocated);
+    }
+
+    // Répète l'opération pendant timeMillis ; le nombre d'opérations est rendu dans count[0]
+    private static int runFor(long timeMillis, Operation operation, int counter, long[] count) throws Exception {
+        long deadline = System.nanoTime() + timeMillis * 1000000;
+        long operations = 0;
+        do {
+            // Par paquets, pour que la lecture de l'horloge ne pèse pas sur la mesure
+            for (int i = 0; i < 64; i++) {
+                operation.run(counter++ & Integer.MAX_VALUE);
+            }
+            operations += 64;
+        } while (System.nanoTime() < deadline);
+        count[0] = operations;
+        return counter;
+    }
+
+    /**
+     * Écrit une configuration dont le cache, l'index et le point de reprise sont dans un répertoire
+     * temporaire, complétée par settings, et la désigne par -Dconfig.file. Renvoie ce répertoire.
+     */
+    public static File prepareConfig(Map<String, String> settings) throws IOException {
+        File directory = writeConfig(settings);
+        System.setProperty("config.file", configFile(directory).getPath());
+        return directory;
+    }
+
+    // Comme prepareConfig(), sans la désigner : pour un proxy lancé dans un autre processus
+    public static File writeConfig(Map<String, String> settings) throws IOException {
+        File directory = Files.createTempDirectory("proxy-bench").toFile();
+        File cacheDirectory = new File(directory, "cache");
+        cacheDirectory.mkdirs();
+        Properties properties = new Properties();
+        properties.setProperty("cache.directory", cacheDirectory.getPath());
+        properties.setProperty("cache.index", new File(directory, "index.log").getPath());
+        properties.setProperty("cache.mapping", new File(directory, "mapping.txt").getPath());
+        properties.setProperty("cache.checkpoint", new File(directory, "checkpoint.bin").getPath());
+        properties.setProperty("log.level", "WARN");
+        properties.putAll(settings);
+        try (OutputStream out = new FileOutputStream(configFile(directory))) {
+            properties.store(out, "configuration des mesures");
+        }
+        return directory;
+    }
+
+    public static File configFile(File directory) {
+        return new File(directory, "bench.properties");
+    }
+
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
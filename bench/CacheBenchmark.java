@@ -0,0 +1,41 @@
+import java.util.function.IntToLongFunction;
+
+/**
+ * Micro-mesures de CacheManager : succès mémoire, succès disque, échec, put, et getCacheFileName
+ * à mesure que l'index grandit. Chaque mesure tourne warmup itérations de chauffe puis iterations
+ * itérations mesurées d'une seconde (réglable par time=ms) ; le score est la moyenne en ns/op avec
+ * l'écart-type entre itérations et les octets alloués par opération. Les mêmes opérations sont
+ * mesurées par JMH dans jmh.CacheBenchmarks (profil Maven bench).
+ *
+ *   java -cp out:out-bench CacheBenchmark [warmup=3] [iterations=5] [time=1000] [index.sizes=1000,10000,100000]
+ */
+public class CacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BenchSupport options = new BenchSupport(args);
+        int warmup = options.getInt("warmup", 3);
+        int iterations = options.getInt("iterations", 5);
+        long time = options.getInt("time", 1000);
+        try (CacheOperations operations = new CacheOperations()) {
+            BenchSupport.printHeader();
+            measure("get succès mémoire (1 Ko)", operations, "memoryHit", warmup, iterations, time);
+            measure("get succès disque (64 Ko)", operations, "diskHit", warmup, iterations, time);
+            measure("get échec", operations, "miss", warmup, iterations, time);
+            measure("put (1 Ko)", operations, "put", warmup, iterations, time);
+
+            for (String size : options.get("index.sizes", "1000,10000,100000").split(",")) {
+                int target = Integer.parseInt(size.trim());
+                measure("getCacheFileName présente (" + target + ")", operations, "fileNamePresent:" + target,
+                        warmup, iterations, time);
+                measure("getCacheFileName absente (" + target + ")", operations, "fileNameAbsent:" + target,
+                        warmup, iterations, time);
+            }
+        }
+    }
+
+    private static void measure(String label, CacheOperations operations, String name, int warmup, int iterations,
+                                long time) throws Exception {
+        IntToLongFunction operation = operations.apply(name);
+        BenchSupport.measure(label, warmup, iterations, time, i -> BenchSupport.sink += operation.applyAsLong(i));
+    }
+}
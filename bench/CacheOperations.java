@@ -0,0 +1,112 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Opérations mesurées sur CacheManager, partagées par CacheBenchmark et par les mesures JMH. Ces
+ * dernières sont dans un paquetage nommé (JMH l'exige) d'où les classes du proxy, dans le paquetage
+ * par défaut, ne peuvent pas être nommées : elles créent cette classe par son nom et n'en voient que
+ * des interfaces du JDK. Chaque opération reçoit un compteur et renvoie une valeur à consommer.
+ */
+public class CacheOperations implements Function<String, IntToLongFunction>, AutoCloseable {
+    private static final int SMALL_SIZE = 1024;
+    private static final int LARGE_SIZE = 64 * 1024;
+    private static final int PUT_KEYS = 1024;
+    private static final int MISS_KEYS = 4096;
+    private static final String MEMORY_URL = "http://bench/memory";
+    private static final String DISK_URL = "http://bench/disk";
+
+    private final File directory;
+    private final WritableByteChannel discard = Channels.newChannel(OutputStream.nullOutputStream());
+    private final byte[] putData = response(SMALL_SIZE);
+    // Entrées déjà écrites dans l'index par les opérations getCacheFileName
+    private int populated;
+
+    // À créer avant tout autre accès aux classes du proxy : la configuration est lue une seule fois
+    public CacheOperations() throws IOException {
+        // Au-delà de 4 Ko, les réponses sont servies depuis leur fichier et non depuis la mémoire
+        directory = BenchSupport.prepareConfig(Map.of(
+                "cache.max.memory.item", "4096",
+                "cache.disk.admission", "all",
+                "cache.writebehind.fsync", "false"));
+        CacheManager.warmUp();
+        CacheManager.put(MEMORY_URL, response(SMALL_SIZE));
+        CacheManager.put(DISK_URL, response(LARGE_SIZE));
+    }
+
+    /**
+     * Opération désignée par son nom : memoryHit, diskHit, miss, put, fileNamePresent:n ou
+     * fileNameAbsent:n. Pour ces deux dernières, l'index est d'abord rempli jusqu'à n entrées.
+     */
+    @Override
+    public IntToLongFunction apply(String name) {
+        int colon = name.indexOf(':');
+        String operation = colon >= 0 ? name.substring(0, colon) : name;
+        switch (operation) {
+            case "memoryHit":
+                return i -> serve(MEMORY_URL);
+            case "diskHit":
+                return i -> serve(DISK_URL);
+            case "miss":
+                return i -> CacheManager.get("http://bench/miss/" + (i % MISS_KEYS)) == null ? 1 : 0;
+            case "put":
+                return i -> {
+                    CacheManager.put("http://bench/put/" + (i % PUT_KEYS), putData);
+                    return i;
+                };
+            case "fileNamePresent": {
+                int known = populate(Integer.parseInt(name.substring(colon + 1)));
+                return i -> CacheManager.getCacheFileName("http://bench/index/" + (i % known)).length();
+            }
+            case "fileNameAbsent":
+                populate(Integer.parseInt(name.substring(colon + 1)));
+                return i -> CacheManager.getCacheFileName("http://bench/absent/" + i).length();
+            default:
+                throw new IllegalArgumentException("Opération inconnue : " + name);
+        }
+    }
+
+    // L'index est rempli par de vraies écritures dans le cache
+    private int populate(int target) {
+        for (; populated < target; populated++) {
+            CacheManager.put("http://bench/index/" + populated, putData);
+        }
+        return populated;
+    }
+
+    private long serve(String url) {
+        CachedResponse cached = CacheManager.get(url);
+        if (cached == null) {
+            throw new IllegalStateException("Entrée absente du cache : " + url);
+        }
+        try {
+            cached.writeBody(OutputStream.nullOutputStream(), discard);
+            return cached.getBodyLength();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            cached.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        CacheManager.close();
+        BenchSupport.deleteRecursively(directory);
+    }
+
+    private static byte[] response(int bodySize) {
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nCache-Control: max-age=3600\r\n"
+                + "Content-Length: " + bodySize + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] data = Arrays.copyOf(head, head.length + bodySize);
+        Arrays.fill(data, head.length, data.length, (byte) 'x');
+        return data;
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Charge en boucle fermée : clients threads, chacun sur sa connexion persistante, envoient une
+ * requête, lisent toute la réponse puis envoient la suivante. Les clés suivent une loi de Zipf
+ * (zipf=exposant) parmi keys objets servis par une origine embarquée ; tailles entre size.min et
+ * size.max. Rapporte le débit et les latences p50/p99/p99.9 mesurées côté client.
+ *
+ * Avec cluster=n, n proxys forment un cluster sur les ports proxy.port à proxy.port+n-1 : le
+ * premier dans ce processus, les autres dans des JVM filles, et les clients sont répartis entre
+ * eux. Le nombre de requêtes reçues par l'origine montre qu'un objet n'y est demandé qu'une fois
+ * pour tout le cluster. kill.after=s arrête le dernier nœud s secondes après le début de la
+ * mesure, pour observer le repli sur les nœuds restants.
+ *
+ *   java -cp out:out-bench LoadTest [clients=32] [duration=30] [warmup=5] [keys=10000] [zipf=0.99]
+ *       [size.min=4k] [size.max=4k] [engine=nio] [proxy.port=9100] [origin.port=9180]
+ *       [cluster=1] [kill.after=0]
+ */
+public class LoadTest {
+    private static volatile boolean measuring;
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        BenchSupport options = new BenchSupport(args);
+        int clients = options.getInt("clients", 32);
+        int duration = options.getInt("duration", 30);
+        int warmup = options.getInt("warmup", 5);
+        int keys = options.getInt("keys", 10000);
+        double exponent = options.getDouble("zipf", 0.99);
+        int minSize = (int) options.getSize("size.min", 4096);
+        int maxSize = (int) options.getSize("size.max", minSize);
+        int proxyPort = options.getInt("proxy.port", 9100);
+        int originPort = options.getInt("origin.port", 9180);
+        int nodes = Math.max(1, options.getInt("cluster", 1));
+        int killAfter = options.getInt("kill.after", 0);
+
+        Map<String, String> settings = new HashMap<>(Map.of(
+                "proxy.engine", options.get("engine", "nio"),
+                "proxy.max.connections", String.valueOf(Math.max(1000, clients * 2)),
+                "cache.memory.bytes", options.get("memory", "256m"),
+                "cache.disk.bytes", options.get("disk", "1g")));
+        int[] ports = new int[nodes];
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < nodes; i++) {
+            ports[i] = proxyPort + i;
+            peers.append(i == 0 ? "" : ",").append("127.0.0.1:").append(ports[i]);
+        }
+        if (nodes > 1) {
+            settings.put("cluster.peers", peers.toString());
+            settings.put("cluster.health.interval", "500");
+        }
+        File directory = BenchSupport.prepareConfig(withNode(settings, ports[0]));
+
+        StubOrigin origin = new StubOrigin(originPort, minSize, maxSize);
+        origin.start();
+        List<Process> peerProcesses = new ArrayList<>();
+        List<File> peerDirectories = new ArrayList<>();
+        for (int i = 1; i < nodes; i++) {
+            File peerDirectory = BenchSupport.writeConfig(withNode(settings, ports[i]));
+            peerDirectories.add(peerDirectory);
+            peerProcesses.add(startPeer(peerDirectory));
+        }
+        ProxyServer proxy = new ProxyServer("127.0.0.1", proxyPort);
+        Thread proxyThread = new Thread(proxy::start, "proxy");
+        proxyThread.start();
+        for (int port : ports) {
+            waitForPort(port);
+        }
+
+        ZipfGenerator zipf = new ZipfGenerator(keys, exponent);
+        String prefix = "http://127.0.0.1" + (originPort == 80 ? "" : ":" + originPort) + "/obj/";
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(c);
+            int node = c % nodes;
+            Thread thread = new Thread(() -> runClient(ports, node, prefix, zipf, random, latency, bytes, errors),
+                    "client-" + c);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        System.out.println("Chauffe pendant " + warmup + " s...");
+        Thread.sleep(warmup * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        if (nodes > 1 && killAfter > 0 && killAfter < duration) {
+            Thread.sleep(killAfter * 1000L);
+            peerProcesses.get(nodes - 2).destroyForcibly();
+            System.out.println("Nœud 127.0.0.1:" + ports[nodes - 1] + " arrêté");
+            Thread.sleep((duration - killAfter) * 1000L);
+        } else {
+            Thread.sleep(duration * 1000L);
+        }
+        measuring = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        long requests = latency.getCount();
+        System.out.printf("clients : %d, clés : %d, zipf : %.2f, tailles : %d-%d octets%n",
+                clients, keys, exponent, minSize, maxSize);
+        System.out.printf("requêtes : %d en %.1f s, débit : %.0f req/s, %.1f Mo/s, erreurs : %d%n",
+                requests, seconds, requests / seconds, bytes.get() / seconds / (1024 * 1024), errors.get());
+        System.out.printf("latence (ms) : p50=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+                latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0,
+                latency.percentile(99.9) / 1000.0, latency.percentile(100) / 1000.0);
+        if (nodes > 1) {
+            System.out.printf("cluster : %d nœuds, requêtes reçues par l'origine : %d%n",
+                    nodes, origin.getRequestCount());
+        }
+        System.out.print(Metrics.report());
+
+        proxy.stop();
+        proxyThread.join(10000);
+        for (Process peer : peerProcesses) {
+            peer.destroy();
+            peer.waitFor();
+        }
+        origin.stop();
+        BenchSupport.deleteRecursively(directory);
+        for (File peerDirectory : peerDirectories) {
+            BenchSupport.deleteRecursively(peerDirectory);
+        }
+    }
+
+    private static Map<String, String> withNode(Map<String, String> settings, int port) {
+        Map<String, String> node = new HashMap<>(settings);
+        node.put("proxy.ip", "127.0.0.1");
+        node.put("proxy.port", String.valueOf(port));
+        node.put("cluster.self", "127.0.0.1:" + port);
+        return node;
+    }
+
+    // Autre nœud du cluster, dans une JVM fille de même classpath ; sa sortie va dans son répertoire
+    private static Process startPeer(File directory) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-Dconfig.file=" + BenchSupport.configFile(directory).getPath(),
+                "-cp", System.getProperty("java.class.path"), "Main")
+                .redirectErrorStream(true)
+                .redirectOutput(new File(directory, "proxy.log"))
+                .start();
+    }
+
+    // Chaque client commence sur son nœud, et passe au suivant si la connexion échoue
+    private static void runClient(int[] ports, int node, String prefix, ZipfGenerator zipf, Random random,
+                                  LatencyHistogram latency, AtomicLong bytes, AtomicLong errors) {
+        Socket socket = null;
+        InputStream in = null;
+        OutputStream out = null;
+        byte[] buffer = new byte[64 * 1024];
+        while (running) {
+            try {
+                if (socket == null) {
+                    socket = new Socket("127.0.0.1", ports[node]);
+                    socket.setTcpNoDelay(true);
+                    in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                    out = new BufferedOutputStream(socket.getOutputStream());
+                }
+                String request = "GET " + prefix + zipf.next(random) + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n";
+                long start = System.nanoTime();
+                out.write(request.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                HttpResponseHead head = HttpResponseHead.read(in);
+                if (head == null || head.getContentLength() < 0) {
+                    throw new IOException("Réponse sans Content-Length");
+                }
+                long remaining = head.getContentLength();
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Réponse tronquée");
+                    }
+                    remaining -= read;
+                }
+                if (measuring) {
+                    latency.recordNanos(System.nanoTime() - start);
+                    bytes.addAndGet(head.getContentLength());
+                }
+                if (measuring && head.getStatusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                if (!head.isKeepAlive()) {
+                    socket.close();
+                    socket = null;
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                if (socket == null) {
+                    node = (node + 1) % ports.length;
+                }
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {}
+                    socket = null;
+                }
+            }
+        }
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static void waitForPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Le proxy n'écoute pas sur le port " + port);
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Micro-mesures de l'analyse des requêtes : HttpRequestParser sur un flux de requêtes pipelinées
+ * typiques d'un navigateur, comparé à l'ancienne lecture ligne à ligne (BufferedReader, split).
+ * La colonne octets/op montre l'allocation par requête analysée.
+ *
+ *   java -cp out:out-bench ParserBenchmark [warmup=3] [iterations=5] [time=1000]
+ */
+public class ParserBenchmark {
+    private static final byte[] REQUEST = ("GET http://www.example.com/images/logo.png?v=3 HTTP/1.1\r\n"
+            + "Host: www.example.com\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: image/avif,image/webp,image/png,image/svg+xml,image/*;q=0.8,*/*;q=0.5\r\n"
+            + "Accept-Language: fr-FR,fr;q=0.8,en-US;q=0.5,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Referer: http://www.example.com/index.html\r\n"
+            + "Cookie: session=4f2a9c0d7e1b; theme=dark\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    // Les mêmes requêtes à l'infini, comme une connexion qui pipeline sans fin
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] data;
+        private int pos;
+
+        RepeatingInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[pos] & 0xff;
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, count);
+            pos = (pos + count) % data.length;
+            return count;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchSupport options = new BenchSupport(args);
+        int warmup = options.getInt("warmup", 3);
+        int iterations = options.getInt("iterations", 5);
+        long time = options.getInt("time", 1000);
+
+        HttpRequestParser parser = new HttpRequestParser(new RepeatingInputStream(REQUEST), new byte[16 * 1024]);
+        HttpRequestParser forwarding = new HttpRequestParser(new RepeatingInputStream(REQUEST), new byte[16 * 1024]);
+        ByteArrayOutputStream upstreamHead = new ByteArrayOutputStream(1024);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new RepeatingInputStream(REQUEST),
+                StandardCharsets.UTF_8));
+
+        BenchSupport.printHeader();
+        BenchSupport.measure("HttpRequestParser.next", warmup, iterations, time, i -> {
+            parser.next();
+            BenchSupport.sink += parser.getMethod().length() + parser.getContentLength()
+                    + (parser.isKeepAlive() ? 1 : 0);
+        });
+        BenchSupport.measure("next + cible + en-têtes retransmis", warmup, iterations, time, i -> {
+            forwarding.next();
+            upstreamHead.reset();
+            forwarding.writeHeaders(upstreamHead, true);
+            BenchSupport.sink += forwarding.getTarget().length() + upstreamHead.size();
+        });
+        BenchSupport.measure("BufferedReader.readLine + split", warmup, iterations, time, i -> {
+            String[] requestParts = reader.readLine().split(" ");
+            String header;
+            while ((header = reader.readLine()) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Connection")) {
+                    BenchSupport.sink += header.substring(colon + 1).toLowerCase().length();
+                }
+            }
+            BenchSupport.sink += requestParts.length;
+        });
+    }
+}
@@ -0,0 +1,75 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serveur d'origine embarqué pour les mesures : /obj/<n> renvoie un corps déterministe dont la
+ * taille, comprise entre minSize et maxSize, dépend de n. Les réponses sont cachables une heure.
+ */
+public class StubOrigin {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int minSize;
+    private final int maxSize;
+    private final byte[] filler;
+    private final LongAdder requests = new LongAdder();
+
+    public StubOrigin(int port, int minSize, int maxSize) throws IOException {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.filler = new byte[this.maxSize];
+        Arrays.fill(filler, (byte) 'x');
+        // Sans quoi l'en-tête et le corps, écrits séparément, subissent l'attente de Nagle côté origine
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 512);
+        executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        server.setExecutor(executor);
+        server.createContext("/obj/", exchange -> {
+            int key;
+            try {
+                key = Integer.parseInt(exchange.getRequestURI().getPath().substring("/obj/".length()));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            requests.increment();
+            int size = sizeOf(key);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+            exchange.sendResponseHeaders(200, size);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(filler, 0, size);
+            }
+        });
+    }
+
+    // Taille du corps de la clé, répartie uniformément entre minSize et maxSize
+    public int sizeOf(int key) {
+        if (maxSize == minSize) {
+            return minSize;
+        }
+        int spread = (key * 0x9E3779B9) >>> 1;
+        return minSize + spread % (maxSize - minSize + 1);
+    }
+
+    // Objets servis depuis le démarrage, tous proxys confondus
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.Random;
+
+/**
+ * Tirage de clés selon une loi de Zipf : la clé de rang k (à partir de 0) est demandée avec une
+ * probabilité proportionnelle à 1 / (k + 1)^exponent. La fonction de répartition est calculée une
+ * fois ; chaque tirage est une recherche dichotomique.
+ */
+public class ZipfGenerator {
+    private final double[] cumulative;
+
+    public ZipfGenerator(int keyCount, double exponent) {
+        cumulative = new double[keyCount];
+        double sum = 0;
+        for (int k = 0; k < keyCount; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < keyCount; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    public int next(Random random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < u) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
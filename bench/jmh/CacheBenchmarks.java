@@ -0,0 +1,115 @@
+package jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesures JMH de CacheManager : get (succès mémoire, succès disque, échec), put, et
+ * getCacheFileName selon la taille de l'index. Les opérations sont celles de CacheOperations,
+ * comme pour CacheBenchmark, créées par leur nom : une classe du paquetage par défaut ne peut pas
+ * être nommée d'ici. Chaque fork a son propre cache dans un répertoire temporaire.
+ *
+ *   mvn -Pbench package && java -jar target/benchmarks.jar [CacheBenchmarks.get]
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Cache {
+        Function<String, IntToLongFunction> operations;
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void setUp() throws Exception {
+            operations = (Function<String, IntToLongFunction>) Class.forName("CacheOperations")
+                    .getConstructor().newInstance();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            ((AutoCloseable) operations).close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Get {
+        IntToLongFunction memoryHit;
+        IntToLongFunction diskHit;
+        IntToLongFunction miss;
+        IntToLongFunction put;
+        int counter;
+
+        @Setup(Level.Trial)
+        public void setUp(Cache cache) {
+            memoryHit = cache.operations.apply("memoryHit");
+            diskHit = cache.operations.apply("diskHit");
+            miss = cache.operations.apply("miss");
+            put = cache.operations.apply("put");
+        }
+    }
+
+    // L'index est rempli jusqu'à indexSize entrées avant la mesure
+    @State(Scope.Thread)
+    public static class Index {
+        @Param({"1000", "10000", "100000"})
+        int indexSize;
+        IntToLongFunction present;
+        IntToLongFunction absent;
+        int counter;
+
+        @Setup(Level.Trial)
+        public void setUp(Cache cache) {
+            present = cache.operations.apply("fileNamePresent:" + indexSize);
+            absent = cache.operations.apply("fileNameAbsent:" + indexSize);
+        }
+    }
+
+    @Benchmark
+    public long getMemoryHit(Get state) {
+        return state.memoryHit.applyAsLong(state.counter++);
+    }
+
+    @Benchmark
+    public long getDiskHit(Get state) {
+        return state.diskHit.applyAsLong(state.counter++);
+    }
+
+    @Benchmark
+    public long getMiss(Get state) {
+        return state.miss.applyAsLong(state.counter++ & Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long put(Get state) {
+        return state.put.applyAsLong(state.counter++ & Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long getCacheFileNamePresent(Index state) {
+        return state.present.applyAsLong(state.counter++ & Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long getCacheFileNameAbsent(Index state) {
+        return state.absent.applyAsLong(state.counter++ & Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Délimitation des requêtes et des réponses : toute ambiguïté sur la fin d'un message doit être
+ * refusée, sans quoi le proxy et l'origine pourraient découper le flux différemment.
+ */
+class HttpRequestParserTest {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static HttpRequestParser parser(String request) {
+        return new HttpRequestParser(new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)),
+                new byte[BUFFER_SIZE]);
+    }
+
+    private static String post(String headers) {
+        return "POST http://example.com/ HTTP/1.1\r\nHost: example.com\r\n" + headers + "\r\n";
+    }
+
+    private static long chunkSize(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        return HttpRequestParser.parseChunkSize(bytes, 0, bytes.length);
+    }
+
+    private static String repeat(char c, int count) {
+        return String.valueOf(c).repeat(count);
+    }
+
+    @Test
+    void transferEncodingEtContentLengthRefuses() {
+        HttpRequestParser request = parser(post("Transfer-Encoding: chunked\r\nContent-Length: 5\r\n") + "hello");
+        assertThrows(ProtocolException.class, request::next);
+    }
+
+    @Test
+    void transferEncodingInconnuRefuse() {
+        HttpRequestParser request = parser(post("Transfer-Encoding: gzip\r\n"));
+        assertThrows(ProtocolException.class, request::next);
+    }
+
+    @Test
+    void contentLengthMultiplesDifferentsRefuses() {
+        HttpRequestParser request = parser(post("Content-Length: 5\r\nContent-Length: 6\r\n") + "hello!");
+        assertThrows(ProtocolException.class, request::next);
+    }
+
+    @Test
+    void contentLengthRepeteIdentiqueAccepte() throws IOException {
+        HttpRequestParser request = parser(post("Content-Length: 5\r\nContent-Length: 5\r\n") + "hello");
+        assertTrue(request.next());
+        assertEquals(5, request.getContentLength());
+    }
+
+    @Test
+    void contentLengthSigneOuVideRefuse() {
+        for (String value : new String[] {"+5", "-1", "5 5", "0x5", "", "99999999999999999999"}) {
+            HttpRequestParser request = parser(post("Content-Length: " + value + "\r\n"));
+            assertThrows(ProtocolException.class, request::next, value);
+        }
+    }
+
+    @Test
+    void tailleDeBlocHexadecimaleStricte() {
+        assertEquals(5, chunkSize("5"));
+        assertEquals(0xff, chunkSize("fF"));
+        assertEquals(5, chunkSize("5 "));
+        assertEquals(5, chunkSize("5 ;x=1"));
+        assertEquals(5, chunkSize("5\t;a"));
+        assertEquals(5, chunkSize("0000000000000005"));
+        assertEquals(Long.MAX_VALUE, chunkSize("7fffffffffffffff"));
+
+        assertEquals(-1, chunkSize(""));
+        assertEquals(-1, chunkSize("+5"));
+        assertEquals(-1, chunkSize("-1"));
+        assertEquals(-1, chunkSize(" 5"));
+        assertEquals(-1, chunkSize("1 2"));
+        assertEquals(-1, chunkSize("0x5"));
+        assertEquals(-1, chunkSize("5g"));
+        assertEquals(-1, chunkSize("00000000000000005"));
+        assertEquals(-1, chunkSize("8000000000000000"));
+    }
+
+    @Test
+    void corpsChunkedRecopieTelQuel() throws IOException {
+        String body = "5;ext=1\r\nhello\r\n0\r\nX-Trailer: 1\r\n\r\n";
+        HttpRequestParser request = parser(post("Transfer-Encoding: chunked\r\n") + body);
+        assertTrue(request.next());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.transferBody(out);
+        assertEquals(body, out.toString(StandardCharsets.ISO_8859_1));
+        assertFalse(request.next());
+    }
+
+    @Test
+    void ligneDeBlocSansCrRefusee() throws IOException {
+        HttpRequestParser request = parser(post("Transfer-Encoding: chunked\r\n") + "5\nhello\r\n0\r\n\r\n");
+        assertTrue(request.next());
+        assertThrows(ProtocolException.class, () -> request.transferBody(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void tailleDeBlocSigneeRefusee() throws IOException {
+        HttpRequestParser request = parser(post("Transfer-Encoding: chunked\r\n") + "+5\r\nhello\r\n0\r\n\r\n");
+        assertTrue(request.next());
+        assertThrows(ProtocolException.class, () -> request.transferBody(OutputStream.nullOutputStream()));
+    }
+
+    @Test
+    void enTeteDeRequeteTropLongRefuse() {
+        HttpRequestParser request = parser(post("X-Long: " + repeat('a', BUFFER_SIZE) + "\r\n"));
+        assertThrows(ProtocolException.class, request::next);
+    }
+
+    @Test
+    void tropDEnTetesRefuses() {
+        StringBuilder headers = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            headers.append("X-").append(i).append(": 1\r\n");
+        }
+        HttpRequestParser request = parser(post(headers.toString()));
+        assertThrows(ProtocolException.class, request::next);
+    }
+
+    @Test
+    void ligneDeReponseTropLongueRefusee() {
+        String response = "HTTP/1.1 200 OK\r\nX-Long: " + repeat('a', 17 * 1024) + "\r\n\r\n";
+        assertThrows(IOException.class, () -> HttpResponseHead.read(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    @Test
+    void enTeteDeReponseTropLongRefuse() {
+        StringBuilder response = new StringBuilder("HTTP/1.1 200 OK\r\n");
+        for (int i = 0; i < 10; i++) {
+            response.append("X-").append(i).append(": ").append(repeat('a', 8 * 1024)).append("\r\n");
+        }
+        response.append("\r\n");
+        assertThrows(IOException.class, () -> HttpResponseHead.read(
+                new ByteArrayInputStream(response.toString().getBytes(StandardCharsets.ISO_8859_1))));
+    }
+}